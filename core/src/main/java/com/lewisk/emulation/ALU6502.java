@@ -0,0 +1,81 @@
+package com.lewisk.emulation;
+
+// Precomputed ADC/SBC results for every (decimal, carry, A, operand).
+// Index: decimal << 17 | carry << 16 | A << 8 | operand
+// Entry: result | (N, V, Z, C in their status register bits) << 8
+public class ALU6502
+{
+    public static final int FLAG_MASK = 0xC3; // N V - - - - Z C
+
+    public static final char[] adc = new char[1 << 18];
+    public static final char[] sbc = new char[1 << 18];
+
+    static
+    {
+        for(int index = 0; index < adc.length; index++)
+        {
+            boolean decimal = (index & (1 << 17)) != 0;
+            int carry = (index >> 16) & 1;
+            int a = (index >> 8) & 0xFF;
+            int m = index & 0xFF;
+
+            adc[index] = (char) (decimal ? adcDecimal(a, m, carry) : adcBinary(a, m, carry));
+            sbc[index] = (char) (decimal ? sbcDecimal(a, m, carry) : adcBinary(a, m ^ 0xFF, carry));
+        }
+    }
+
+    public static int index(byte flags, byte a, int operand)
+    {
+        return ((flags & 0x08) << 14) | ((flags & 0x01) << 16) | ((a & 0xFF) << 8) | (operand & 0xFF);
+    }
+
+    private static int flags(int result, boolean carry, boolean overflow, boolean negative)
+    {
+        int flags = 0;
+        if(carry)       flags |= 0x01;
+        if(result == 0) flags |= 0x02;
+        if(overflow)    flags |= 0x40;
+        if(negative)    flags |= 0x80;
+        return flags << 8;
+    }
+
+    private static int adcBinary(int a, int m, int carry)
+    {
+        int sum = a + m + carry;
+        int result = sum & 0xFF;
+        boolean overflow = (~(a ^ m) & (a ^ result) & 0x80) != 0;
+        return result | flags(result, sum > 0xFF, overflow, (result & 0x80) != 0);
+    }
+
+    // NMOS behaviour: Z from the binary sum, N and V from the intermediate
+    // result before the high nibble is adjusted.
+    private static int adcDecimal(int a, int m, int carry)
+    {
+        int low = (a & 0x0F) + (m & 0x0F) + carry;
+        if(low >= 0x0A) low = ((low + 0x06) & 0x0F) + 0x10;
+
+        int signed = (byte) (a & 0xF0) + (byte) (m & 0xF0) + low;
+        boolean overflow = signed < -128 || signed > 127;
+
+        int sum = (a & 0xF0) + (m & 0xF0) + low;
+        boolean negative = (sum & 0x80) != 0;
+        if(sum >= 0xA0) sum += 0x60;
+
+        int binary = (a + m + carry) & 0xFF;
+        int result = sum & 0xFF;
+        return result | (flags(binary, sum >= 0x100, overflow, negative));
+    }
+
+    // NMOS behaviour: flags are those of the binary subtraction.
+    private static int sbcDecimal(int a, int m, int carry)
+    {
+        int low = (a & 0x0F) - (m & 0x0F) + carry - 1;
+        if(low < 0) low = ((low - 0x06) & 0x0F) - 0x10;
+
+        int diff = (a & 0xF0) - (m & 0xF0) + low;
+        if(diff < 0) diff -= 0x60;
+
+        int binary = adcBinary(a, m ^ 0xFF, carry);
+        return (diff & 0xFF) | (binary & 0xFF00);
+    }
+}
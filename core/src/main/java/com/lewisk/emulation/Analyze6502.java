@@ -0,0 +1,565 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.util.*;
+
+// Static control flow and cycle cost analysis of an assembled program.
+// Code is found by following branches, jumps and calls from the program
+// origin, every JSR target is a routine. Blocks cost the base cycles of
+// Opcode6502.cycles plus one cycle for each taken branch, as executed by
+// the CPU. Calls cost the bounds of the routine they call.
+//
+// Per routine:
+//   min   shortest path to RTS, loops run once
+//   pass  longest path to RTS, loops run once
+//   max   longest path with every loop at its bound, UNBOUNDED if a loop
+//         has no known bound
+//
+// A loop is bounded when its single back edge is a BNE to the header right
+// after stepping a counter: DEX/DEY/INX/INY, or DEC/INC of a zero page byte.
+// Nothing else in the loop may write the counter or call a routine. The
+// iterations follow from the counter's load before the loop, 256 when that
+// load is not a known constant. Any other loop shape is unknown.
+public class Analyze6502
+{
+    public static final long UNBOUNDED = Long.MAX_VALUE / 4;
+    private static final int TAKEN = 1;
+
+    // Straight line code, control only enters at start and leaves at the end.
+    public static class Block
+    {
+        public final int start;
+        public int end;
+        public int cycles;
+        public final List<Integer> calls = new ArrayList<>();
+        public final List<Integer> successors = new ArrayList<>();
+        // True for the successor reached by a taken branch.
+        protected final List<Boolean> taken = new ArrayList<>();
+        // Returns, halts or continues somewhere unknown.
+        public boolean exit;
+
+        protected Block(int start)
+        {
+            this.start = start;
+        }
+    }
+
+    public static class Loop
+    {
+        public final int header;
+        public final Set<Integer> body = new TreeSet<>();
+        public final List<Integer> latches = new ArrayList<>();
+        // Iterations, 0 when unknown.
+        public int bound;
+        public long minIteration;
+        public long maxIteration;
+
+        protected Loop(int header)
+        {
+            this.header = header;
+        }
+    }
+
+    public static class Routine
+    {
+        public final int entry;
+        public final String name;
+        public final List<Integer> blocks = new ArrayList<>();
+        public final List<Loop> loops = new ArrayList<>();
+        public long min;
+        public long pass;
+        public long max;
+        // False if no path reaches RTS, BRK or an indirect jump.
+        public boolean exits;
+
+        protected Routine(int entry, String name)
+        {
+            this.entry = entry;
+            this.name = name;
+        }
+    }
+
+    private final byte[] memory;
+    private final DebugInfo6502 debug;
+    public final Map<Integer, Block> blocks = new TreeMap<>();
+    public final Map<Integer, Routine> routines = new TreeMap<>();
+    private final Set<Integer> inProgress = new HashSet<>();
+
+    // Per routine graph state.
+    private final Set<Long> backEdges = new HashSet<>();
+    private final Map<Integer, Long> extra = new HashMap<>();
+
+    public Analyze6502(Program6502 program)
+    {
+        memory = new byte[CPU6502.MEMSIZE];
+        System.arraycopy(program.bytes, 0, memory, program.origin, program.bytes.length);
+        int[] lineStart = program.lineStart != null ? program.lineStart : new int[] { 0 };
+        debug = DebugInfo6502.of(program.origin, lineStart, program.symbols, program.defines, "");
+
+        Set<Integer> entries = new TreeSet<>();
+        entries.add(program.origin);
+        Set<Integer> leaders = findCode(entries);
+        for(int leader : leaders) blocks.put(leader, buildBlock(leader, leaders));
+        for(int entry : entries) routine(entry);
+    }
+
+    private int opcode(int address)
+    {
+        return memory[address & 0xFFFF] & 0xFF;
+    }
+
+    private int word(int address)
+    {
+        return opcode(address) | (opcode(address + 1) << 8);
+    }
+
+    private static boolean isBranch(int opcode)
+    {
+        return Opcode6502.modes[opcode] == Opcode6502.REL;
+    }
+
+    // Control never falls through to the next instruction.
+    private static boolean endsFlow(int opcode)
+    {
+        return switch(opcode)
+        {
+            case 0x00, 0x40, 0x60, 0x4C, 0x6C -> true; // BRK, RTI, RTS, JMP, JMP ()
+            default -> Opcode6502.mnemonics[opcode] == null;
+        };
+    }
+
+    private int branchTarget(int address)
+    {
+        return (address + 2 + (byte) opcode(address + 1)) & 0xFFFF;
+    }
+
+    // Follows every path from the entries, adds JSR targets to entries and returns block leaders.
+    private Set<Integer> findCode(Set<Integer> entries)
+    {
+        boolean[] visited = new boolean[CPU6502.MEMSIZE];
+        Set<Integer> leaders = new TreeSet<>(entries);
+        Deque<Integer> work = new ArrayDeque<>(entries);
+        while(!work.isEmpty())
+        {
+            int address = work.pop();
+            while(address < CPU6502.MEMSIZE && !visited[address])
+            {
+                visited[address] = true;
+                int op = opcode(address);
+                int next = address + Opcode6502.lengths[op];
+
+                if(isBranch(op))
+                {
+                    int target = branchTarget(address);
+                    leaders.add(target);
+                    if(next < CPU6502.MEMSIZE) leaders.add(next);
+                    work.push(target);
+                }
+                else if(op == 0x4C || op == 0x20)
+                {
+                    int target = word(address + 1);
+                    leaders.add(target);
+                    if(op == 0x20) entries.add(target);
+                    work.push(target);
+                }
+                if(endsFlow(op)) break;
+                address = next;
+            }
+        }
+        return leaders;
+    }
+
+    private Block buildBlock(int start, Set<Integer> leaders)
+    {
+        Block block = new Block(start);
+        int address = start;
+        while(true)
+        {
+            int op = opcode(address);
+            int next = address + Opcode6502.lengths[op];
+            block.cycles += Opcode6502.cycles[op];
+
+            if(op == 0x20) block.calls.add(word(address + 1));
+            if(isBranch(op))
+            {
+                if(next < CPU6502.MEMSIZE)
+                {
+                    block.successors.add(next);
+                    block.taken.add(false);
+                }
+                block.successors.add(branchTarget(address));
+                block.taken.add(true);
+            }
+            else if(op == 0x4C)
+            {
+                block.successors.add(word(address + 1));
+                block.taken.add(false);
+            }
+            else if(endsFlow(op) || next >= CPU6502.MEMSIZE)
+            {
+                block.exit = true;
+            }
+
+            if(isBranch(op) || endsFlow(op) || next >= CPU6502.MEMSIZE || leaders.contains(next))
+            {
+                if(!isBranch(op) && !endsFlow(op) && next < CPU6502.MEMSIZE)
+                {
+                    block.successors.add(next);
+                    block.taken.add(false);
+                }
+                block.end = next;
+                return block;
+            }
+            address = next;
+        }
+    }
+
+    // Analyzes the routine at entry once, a recursive call is unbounded.
+    private Routine routine(int entry)
+    {
+        Routine routine = routines.get(entry);
+        if(routine != null) return routine;
+        if(!inProgress.add(entry)) return null;
+
+        // Callees first, the graph state below is per routine.
+        Set<Integer> reachable = new LinkedHashSet<>();
+        collect(entry, reachable);
+        for(int start : reachable)
+        {
+            for(int callee : blocks.get(start).calls) routine(callee);
+        }
+
+        String label = debug.label(entry);
+        routine = new Routine(entry, label != null ? String.format("%s ($%04x)", label, entry) : String.format("$%04x", entry));
+        routine.blocks.addAll(new TreeSet<>(reachable));
+
+        backEdges.clear();
+        extra.clear();
+        List<Integer> order = new ArrayList<>();
+        depthFirst(entry, new HashSet<>(), new HashSet<>(), order);
+        Collections.reverse(order);
+
+        findLoops(routine, order);
+        routine.min = exitCost(routine, order, false, false);
+        routine.pass = exitCost(routine, order, true, false);
+        routine.max = exitCost(routine, order, true, true);
+        routine.exits = routine.min < UNBOUNDED;
+
+        inProgress.remove(entry);
+        routines.put(entry, routine);
+        return routine;
+    }
+
+    private void collect(int start, Set<Integer> reachable)
+    {
+        Deque<Integer> work = new ArrayDeque<>();
+        work.push(start);
+        while(!work.isEmpty())
+        {
+            int address = work.pop();
+            if(!reachable.add(address)) continue;
+            for(int next : blocks.get(address).successors) work.push(next);
+        }
+    }
+
+    // Postorder of the blocks, edges to a block still on the stack are back edges.
+    private void depthFirst(int start, Set<Integer> visited, Set<Integer> onStack, List<Integer> postorder)
+    {
+        visited.add(start);
+        onStack.add(start);
+        for(int next : blocks.get(start).successors)
+        {
+            if(onStack.contains(next))
+                backEdges.add(edge(start, next));
+            else if(!visited.contains(next))
+                depthFirst(next, visited, onStack, postorder);
+        }
+        onStack.remove(start);
+        postorder.add(start);
+    }
+
+    private static long edge(int from, int to)
+    {
+        return ((long) from << 16) | to;
+    }
+
+    private static long add(long a, long b)
+    {
+        return Math.min(UNBOUNDED, a + b);
+    }
+
+    private long callCost(Block block, boolean longest, boolean bounded)
+    {
+        long cost = 0;
+        for(int callee : block.calls)
+        {
+            Routine routine = routines.get(callee);
+            if(routine == null)
+            {
+                // Recursive, at least the call itself
+                if(longest) return UNBOUNDED;
+                continue;
+            }
+            if(!routine.exits) return UNBOUNDED;
+            cost = add(cost, longest ? (bounded ? routine.max : routine.pass) : routine.min);
+        }
+        return cost;
+    }
+
+    private long blockCost(int start, boolean longest, boolean bounded)
+    {
+        Block block = blocks.get(start);
+        long cost = add(block.cycles, callCost(block, longest, bounded));
+        if(bounded) cost = add(cost, extra.getOrDefault(start, 0L));
+        return cost;
+    }
+
+    // Cost of reaching the end of every block in nodes from source, back edges excluded.
+    private Map<Integer, Long> paths(List<Integer> order, Set<Integer> nodes, int source, boolean longest, boolean bounded)
+    {
+        Map<Integer, Long> cost = new HashMap<>();
+        cost.put(source, blockCost(source, longest, bounded));
+        for(int start : order)
+        {
+            Long at = cost.get(start);
+            if(at == null || !nodes.contains(start)) continue;
+
+            Block block = blocks.get(start);
+            for(int i = 0; i < block.successors.size(); i++)
+            {
+                int next = block.successors.get(i);
+                if(!nodes.contains(next) || backEdges.contains(edge(start, next))) continue;
+
+                long value = add(add(at, block.taken.get(i) ? TAKEN : 0), blockCost(next, longest, bounded));
+                Long best = cost.get(next);
+                if(best == null || (longest ? value > best : value < best)) cost.put(next, value);
+            }
+        }
+        return cost;
+    }
+
+    private long exitCost(Routine routine, List<Integer> order, boolean longest, boolean bounded)
+    {
+        Map<Integer, Long> cost = paths(order, new HashSet<>(routine.blocks), routine.entry, longest, bounded);
+        long result = longest ? -1 : UNBOUNDED;
+        for(int start : routine.blocks)
+        {
+            Long value = cost.get(start);
+            if(value == null || !blocks.get(start).exit) continue;
+            result = longest ? Math.max(result, value) : Math.min(result, value);
+        }
+        return result < 0 ? UNBOUNDED : result;
+    }
+
+    // Natural loops of the back edges, innermost first. Each loop adds the cost
+    // of its iterations after the first to its header for the bounded paths.
+    private void findLoops(Routine routine, List<Integer> order)
+    {
+        Map<Integer, Loop> byHeader = new HashMap<>();
+        for(long back : backEdges)
+        {
+            int latch = (int) (back >> 16);
+            int header = (int) (back & 0xFFFF);
+            Loop loop = byHeader.computeIfAbsent(header, Loop::new);
+            loop.latches.add(latch);
+
+            // Blocks reaching the latch without passing the header.
+            loop.body.add(header);
+            Deque<Integer> work = new ArrayDeque<>();
+            work.push(latch);
+            while(!work.isEmpty())
+            {
+                int start = work.pop();
+                if(!loop.body.add(start)) continue;
+                for(int pred : routine.blocks)
+                {
+                    if(blocks.get(pred).successors.contains(start)) work.push(pred);
+                }
+            }
+        }
+
+        List<Loop> loops = new ArrayList<>(byHeader.values());
+        loops.sort(Comparator.comparingInt((Loop loop) -> loop.body.size()).thenComparingInt(loop -> loop.header));
+        for(Loop loop : loops)
+        {
+            Map<Integer, Long> max = paths(order, loop.body, loop.header, true, true);
+            Map<Integer, Long> min = paths(order, loop.body, loop.header, false, false);
+            loop.maxIteration = -1;
+            loop.minIteration = UNBOUNDED;
+            for(int latch : loop.latches)
+            {
+                int taken = latchTaken(latch, loop.header);
+                if(max.containsKey(latch)) loop.maxIteration = Math.max(loop.maxIteration, add(max.get(latch), taken));
+                if(min.containsKey(latch)) loop.minIteration = Math.min(loop.minIteration, add(min.get(latch), taken));
+            }
+            if(loop.maxIteration < 0) loop.maxIteration = UNBOUNDED;
+
+            loop.bound = bound(routine, loop);
+            long more = loop.bound == 0 ? UNBOUNDED : Math.min(UNBOUNDED, (loop.bound - 1) * loop.maxIteration);
+            extra.merge(loop.header, more, Analyze6502::add);
+        }
+        loops.sort(Comparator.comparingInt(loop -> loop.header));
+        routine.loops.addAll(loops);
+    }
+
+    private int latchTaken(int latch, int header)
+    {
+        Block block = blocks.get(latch);
+        int i = block.successors.indexOf(header);
+        return block.taken.get(i) ? TAKEN : 0;
+    }
+
+    // Iterations of a counted loop: one latch ending in DEX/DEY/INX/INY or DEC/INC of a
+    // zero page byte + BNE back to the header, nothing else in the body may write the
+    // counter. The count comes from an immediate stored to the counter in the only block
+    // entering the loop, 256 without one.
+    private int bound(Routine routine, Loop loop)
+    {
+        if(loop.latches.size() != 1) return 0;
+        Block latch = blocks.get(loop.latches.get(0));
+        int branch = lastInstruction(latch);
+        if(opcode(branch) != 0xD0 || branchTarget(branch) != loop.header) return 0;
+
+        int step = -1;
+        for(int address = latch.start; address < branch; address += Opcode6502.lengths[opcode(address)]) step = address;
+        if(step < 0) return 0;
+        int counter = switch(opcode(step))
+        {
+            case 0xCA, 0xE8 -> X;
+            case 0x88, 0xC8 -> Y;
+            case 0xC6, 0xE6 -> opcode(step + 1); // DEC, INC zp
+            default -> -1;
+        };
+        if(counter < 0) return 0;
+
+        for(int start : loop.body)
+        {
+            Block block = blocks.get(start);
+            if(!block.calls.isEmpty()) return 0;
+            for(int address = block.start; address < block.end; address += Opcode6502.lengths[opcode(address)])
+            {
+                if(address != step && writes(address, counter)) return 0;
+            }
+        }
+
+        int preheader = -1;
+        for(int start : routine.blocks)
+        {
+            if(loop.body.contains(start) || !blocks.get(start).successors.contains(loop.header)) continue;
+            if(preheader >= 0) return 256;
+            preheader = start;
+        }
+        int initial = preheader < 0 ? -1 : initialValue(blocks.get(preheader), counter);
+        if(initial < 0) return 256;
+
+        boolean down = switch(opcode(step)) { case 0xCA, 0x88, 0xC6 -> true; default -> false; };
+        int iterations = (down ? initial : 0x100 - initial) & 0xFF;
+        return iterations == 0 ? 256 : iterations;
+    }
+
+    // Counters: zero page address, or one of the index registers.
+    private static final int X = 0x100;
+    private static final int Y = 0x101;
+
+    private static final Set<String> WRITES_X = Set.of("LDX", "TAX", "TSX", "INX", "DEX");
+    private static final Set<String> WRITES_Y = Set.of("LDY", "TAY", "INY", "DEY");
+    private static final Set<String> WRITES_MEMORY = Set.of("STA", "STX", "STY", "INC", "DEC", "ASL", "LSR", "ROL", "ROR");
+    private static final Set<String> KEEPS_A = Set.of(
+            "STA", "STX", "STY", "LDX", "LDY", "TAX", "TAY", "TSX", "TXS", "INX", "INY", "DEX", "DEY", "INC", "DEC",
+            "CMP", "CPX", "CPY", "BIT", "CLC", "SEC", "CLD", "SED", "CLI", "SEI", "CLV", "NOP", "PHA", "PHP");
+
+    // True if the instruction at address may change counter.
+    private boolean writes(int address, int counter)
+    {
+        int op = opcode(address);
+        String name = Opcode6502.mnemonics[op];
+        if(name == null) return false;
+        if(counter == X) return WRITES_X.contains(name);
+        if(counter == Y) return WRITES_Y.contains(name);
+
+        if(!WRITES_MEMORY.contains(name)) return false;
+        return switch(Opcode6502.modes[op])
+        {
+            case Opcode6502.ZP -> opcode(address + 1) == counter;
+            case Opcode6502.ABS -> word(address + 1) == counter;
+            case Opcode6502.ABX, Opcode6502.ABY -> word(address + 1) <= counter && counter <= word(address + 1) + 0xFF;
+            case Opcode6502.ZPX, Opcode6502.ZPY, Opcode6502.INX, Opcode6502.INY -> true;
+            default -> false;
+        };
+    }
+
+    // Value block leaves in counter when it is an immediate, -1 otherwise.
+    private int initialValue(Block block, int counter)
+    {
+        int a = -1, x = -1, y = -1, stored = -1;
+        for(int address = block.start; address < block.end; address += Opcode6502.lengths[opcode(address)])
+        {
+            int op = opcode(address);
+            int value = opcode(address + 1);
+            boolean zeroPage = Opcode6502.modes[op] == Opcode6502.ZP && value == counter;
+            switch(op)
+            {
+                case 0xA9 -> a = value;      // LDA #
+                case 0xA2 -> x = value;      // LDX #
+                case 0xA0 -> y = value;      // LDY #
+                case 0xAA -> x = a;          // TAX
+                case 0xA8 -> y = a;          // TAY
+                case 0x8A -> a = x;          // TXA
+                case 0x98 -> a = y;          // TYA
+                case 0x85 -> { if(zeroPage) stored = a; }
+                case 0x86 -> { if(zeroPage) stored = x; }
+                case 0x84 -> { if(zeroPage) stored = y; }
+                default -> {
+                    String name = Opcode6502.mnemonics[op];
+                    if(name == null || name.equals("JSR")) return -1;
+                    if(!KEEPS_A.contains(name)) a = -1;
+                    if(writes(address, X)) x = -1;
+                    if(writes(address, Y)) y = -1;
+                    if(counter < X && writes(address, counter)) stored = -1;
+                }
+            }
+        }
+        return counter == X ? x : counter == Y ? y : stored;
+    }
+
+    private int lastInstruction(Block block)
+    {
+        int last = block.start;
+        for(int address = block.start; address < block.end; address += Opcode6502.lengths[opcode(address)]) last = address;
+        return last;
+    }
+
+    private static String cycles(long value)
+    {
+        return value >= UNBOUNDED ? "unbounded" : Long.toString(value);
+    }
+
+    // Routines with their bounds and loops, then their blocks disassembled.
+    public void report(Appendable out) throws IOException
+    {
+        for(Routine routine : routines.values())
+        {
+            out.append(String.format("; routine %s: ", routine.name));
+            if(routine.exits)
+                out.append(String.format("min %s, pass %s, max %s cycles\n", cycles(routine.min), cycles(routine.pass), cycles(routine.max)));
+            else
+                out.append("never returns\n");
+
+            for(Loop loop : routine.loops)
+            {
+                String label = debug.symbolize(loop.header);
+                out.append(String.format(";   loop %s ($%04x): %d blocks, %s-%s cycles per iteration, %s iterations\n",
+                        label != null ? label : "", loop.header, loop.body.size(),
+                        cycles(loop.minIteration), cycles(loop.maxIteration), loop.bound == 0 ? "unknown" : Integer.toString(loop.bound)));
+            }
+
+            for(int start : routine.blocks)
+            {
+                Block block = blocks.get(start);
+                out.append(String.format(";   block $%04x: %d cycles%s\n", start, block.cycles, block.calls.isEmpty() ? "" : " + calls"));
+                Disassemble6502.disassemble(memory, block.start, block.end, debug, out);
+            }
+            out.append('\n');
+        }
+    }
+}
@@ -0,0 +1,729 @@
+package com.lewisk.emulation;
+
+import java.io.InputStream;
+import java.util.*;
+
+// Takes a file, reads it then returns byte-code.
+public class Assemble6502
+{
+    // Changes whenever the same source may assemble to different output.
+    public static final String VERSION = "2";
+
+    protected static class InstrData
+    {
+        String name;
+        String args;
+        ModeData mode;
+        int[] bytes;
+
+        // Label operand, patched through a Fixup.
+        String symbol;
+        int line;
+
+        protected InstrData(String name, String args, int[] bytes)
+        {
+            this.name = name;
+            this.args = args;
+            this.bytes = bytes;
+        }
+    }
+
+    protected static class ModeData
+    {
+        String name;
+        int byteCount;
+        int ID;
+
+        protected ModeData(String name, int byteCount, int ID)
+        {
+            this.name = name;
+            this.byteCount = byteCount;
+            this.ID = ID;
+        }
+    }
+
+    // Label reference patched once the label address is known.
+    protected static class Fixup
+    {
+        int offset;       // Output offset of the operand.
+        String symbol;    // Null for a local address relative to the object start.
+        boolean relative; // Branch offset instead of absolute address.
+        int line;
+
+        protected Fixup(int offset, String symbol, boolean relative, int line)
+        {
+            this.offset = offset;
+            this.symbol = symbol;
+            this.relative = relative;
+            this.line = line;
+        }
+
+        // Writes the label address into output (loaded at origin), false on error.
+        protected boolean apply(byte[] output, int origin, Map<String, Integer> labels)
+        {
+            Integer addr = labels.get(symbol);
+            if(addr == null)
+            {
+                System.out.format("Undefined label -> %s (line %d)\n", symbol, line);
+                return false;
+            }
+
+            if(relative)
+            {
+                int offs = addr - (origin + offset + 1);
+                if(offs > 127 || offs < -128)
+                {
+                    System.out.format("Branch out of range -> %s (line %d) [Distance: %d]\n", symbol, line, offs);
+                    return false;
+                }
+                output[offset] = (byte) offs;
+            }
+            else
+            {
+                output[offset] = (byte) addr.intValue();
+                output[offset + 1] = (byte) (addr >> 8);
+            }
+            return true;
+        }
+    }
+
+    // Addressing modes, ID is the column in the opcode table.
+    // ZeroPage = Relative in Branching instructions.
+    protected static final ModeData ACC = new ModeData("ACC", 0, 0);
+    protected static final ModeData IMP = new ModeData("IMP", 0, 1);
+    protected static final ModeData IMM = new ModeData("IMM", 1, 2);
+    protected static final ModeData ZP  = new ModeData("ZP",  1, 3);
+    protected static final ModeData ZPX = new ModeData("ZPX", 1, 4);
+    protected static final ModeData ZPY = new ModeData("ZPY", 1, 5);
+    protected static final ModeData ABS = new ModeData("ABS", 2, 6);
+    protected static final ModeData ABX = new ModeData("ABX", 2, 7);
+    protected static final ModeData ABY = new ModeData("ABY", 2, 8);
+    protected static final ModeData IN  = new ModeData("IN",  2, 9);
+    protected static final ModeData INX = new ModeData("INX", 1, 10);
+    protected static final ModeData INY = new ModeData("INY", 1, 11);
+    protected static final ModeData[] modes = { ACC, IMP, IMM, ZP, ZPX, ZPY, ABS, ABX, ABY, IN, INX, INY };
+
+    // Opcode per addressing mode indexed by mnemonicKey, -1 where the mode is invalid.
+    // Built from Opcode6502's metadata so the CPU, assembler and disassembler agree.
+    private static final int[][] opcodes = new int[26 * 26 * 26][];
+    static
+    {
+        for(int op = 0; op < 256; op++)
+        {
+            String name = Opcode6502.mnemonics[op];
+            if(name == null) continue;
+
+            int key = mnemonicKey(name, 0);
+            if(opcodes[key] == null)
+            {
+                opcodes[key] = new int[modes.length];
+                Arrays.fill(opcodes[key], -1);
+            }
+
+            int mode = Opcode6502.modes[op];
+            if(mode == Opcode6502.REL) mode = ZP.ID; // Written like zero page
+            opcodes[key][mode] = op;
+            if(mode == ACC.ID) opcodes[key][IMP.ID] = op; // "ASL" and "ASL A"
+        }
+    }
+
+    // Packs 3 letters into a table index, -1 when not a mnemonic shape.
+    protected static int mnemonicKey(CharSequence src, int start)
+    {
+        if(src.length() < start + 3) return -1;
+        int key = 0;
+        for(int i = start; i < start + 3; i++)
+        {
+            int c = src.charAt(i) | 0x20; // Lower case
+            if(c < 'a' || c > 'z') return -1;
+            key = key * 26 + (c - 'a');
+        }
+        return key;
+    }
+
+    protected static boolean isBranch(String name)
+    {
+        return name.charAt(0) == 'B' && !name.equals("BIT") && !name.equals("BRK");
+    }
+
+    // Opcode of name in mode, -1 if there is none.
+    protected static int opcode(String name, ModeData mode)
+    {
+        int key = mnemonicKey(name, 0);
+        int[] codes = key < 0 ? null : opcodes[key];
+        return codes == null ? -1 : codes[mode.ID];
+    }
+
+    protected static int getOpcode(InstrData instr)
+    {
+        int key = mnemonicKey(instr.name, 0);
+        int[] codes = key < 0 ? null : opcodes[key];
+        if(codes == null)
+        {
+            System.out.format("Invalid name: %s\n", instr.name);
+            return -1;
+        }
+        int finalCode = codes[instr.mode.ID];
+        if(finalCode < 0)
+        {
+            System.out.format("No such instruction: %s, %d\n", instr.name, instr.mode.ID);
+        }
+        return finalCode;
+    }
+
+    private static int hexDigit(char c)
+    {
+        if(c >= '0' && c <= '9') return c - '0';
+        if(c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    // Parses exactly len hex digits at start, -1 if any are missing.
+    protected static int parseHex(String src, int start, int len)
+    {
+        if(len <= 0 || src.length() < start + len) return -1;
+        int value = 0;
+        for(int i = start; i < start + len; i++)
+        {
+            int digit = hexDigit(src.charAt(i));
+            if(digit < 0) return -1;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    // Number of hex digits starting at start.
+    private static int countHex(String src, int start)
+    {
+        int i = start;
+        while(i < src.length() && hexDigit(src.charAt(i)) >= 0) i++;
+        return i - start;
+    }
+
+    // Parses decimal digits from start to end, -1 if invalid.
+    private static int parseDec(String src, int start, int end)
+    {
+        if(start >= end) return -1;
+        int value = 0;
+        for(int i = start; i < end; i++)
+        {
+            char c = src.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // True if src ends with suffix at index start.
+    private static boolean tail(String src, int start, String suffix)
+    {
+        return src.length() - start == suffix.length() && src.startsWith(suffix, start);
+    }
+
+    // Hand-written addressing mode recognition, sets mode and operand value.
+    // Returns false when the operand matches no addressing mode.
+    protected static boolean parseOperand(String args, InstrData out, int[] value)
+    {
+        int len = args.length();
+        value[0] = 0;
+        if(len == 0) { out.mode = IMP; return true; }
+        if(args.equals("a")) { out.mode = ACC; return true; }
+
+        char first = args.charAt(0);
+        if(first == '#')
+        {
+            if(len > 1 && args.charAt(1) == '$')
+            {
+                // #$hh
+                if(len != 4 || (value[0] = parseHex(args, 2, 2)) < 0) return false;
+            }
+            else
+            {
+                // #ddd, decimal
+                if(len > 4 || (value[0] = parseDec(args, 1, len)) < 0) return false;
+                if(value[0] > 255) value[0] = 255;
+            }
+            out.mode = IMM;
+            return true;
+        }
+        if(first == '$')
+        {
+            int digits = countHex(args, 1);
+            if(digits != 2 && digits != 4) return false;
+            value[0] = parseHex(args, 1, digits);
+
+            int rest = 1 + digits;
+            boolean zp = digits == 2;
+            if(rest == len)               out.mode = zp ? ZP  : ABS;
+            else if(tail(args, rest, ",x")) out.mode = zp ? ZPX : ABX;
+            else if(tail(args, rest, ",y")) out.mode = zp ? ZPY : ABY;
+            else return false;
+            return true;
+        }
+        if(first == '(' && len > 2 && args.charAt(1) == '$')
+        {
+            int digits = countHex(args, 2);
+            int rest = 2 + digits;
+            if(digits == 4 && tail(args, rest, ")"))        out.mode = IN;
+            else if(digits == 2 && tail(args, rest, ",x)")) out.mode = INX;
+            else if(digits == 2 && tail(args, rest, "),y")) out.mode = INY;
+            else return false;
+            value[0] = parseHex(args, 2, digits);
+            return true;
+        }
+        return false;
+    }
+
+    // Parses DCB arguments (#dec or $hex separated by commas).
+    private static int[] parseDCB(String args)
+    {
+        int[] output = new int[args.length()];
+        int count = 0;
+        int start = 0;
+        while(start < args.length())
+        {
+            int end = args.indexOf(',', start);
+            if(end < 0) end = args.length();
+            if(end > start)
+            {
+                char prefix = args.charAt(start);
+                int value = -1;
+                if(prefix == '#')      value = parseDec(args, start + 1, end);
+                else if(prefix == '$') value = parseHex(args, start + 1, end - start - 1);
+                if(value < 0) return null;
+                output[count++] = value & 0xFF;
+            }
+            start = end + 1;
+        }
+        return Arrays.copyOf(output, count);
+    }
+
+    // Filter whitespace
+    private static String compact(String src)
+    {
+        StringBuilder code = new StringBuilder(src.length());
+        for(int i = 0; i < src.length(); i++)
+        {
+            char c = src.charAt(i);
+            if(!Character.isWhitespace(c)) code.append(c);
+        }
+        return code.toString();
+    }
+
+    public static InstrData getBytes(String src)
+    {
+        String code = compact(src);
+        if(code.length() < 3) return null;
+
+        // Get instruction and arguments.
+        var instrOutput = new InstrData(code.substring(0,3).toUpperCase(), code.substring(3).toLowerCase(), null);
+        encode(instrOutput);
+        return instrOutput;
+    }
+
+    // Resolves mode and bytes from name and (lower case) args,
+    // bytes is left null when the instruction is invalid.
+    protected static void encode(InstrData instr)
+    {
+        // DCB Support
+        if(instr.name.equals("DCB"))
+        {
+            instr.bytes = parseDCB(instr.args);
+            instr.mode = IMM;
+            return;
+        }
+
+        // Resolve instruction mode.
+        int[] value = new int[1];
+        if(!parseOperand(instr.args, instr, value)) return;
+
+        int opcode = getOpcode(instr);
+        if(opcode < 0) return;
+
+        int[] bytes = new int[1 + instr.mode.byteCount];
+        bytes[0] = opcode;
+        if(bytes.length > 1) bytes[1] = value[0] & 0xFF;
+        if(bytes.length > 2) bytes[2] = (value[0] >> 8) & 0xFF;
+        instr.bytes = bytes;
+    }
+
+    private static boolean isIdentifier(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isIdentifierStart(char c)
+    {
+        return isIdentifier(c) && (c < '0' || c > '9');
+    }
+
+    // Substitutes defines in the operand and replaces a label reference
+    // with a placeholder, recording its name in instr.symbol.
+    // Returns null if the operand references more than one label.
+    protected static String resolveSymbols(String args, Map<String, String> defines, InstrData instr)
+    {
+        StringBuilder output = null;
+        int copied = 0;
+        int len = args.length();
+        int i = 0;
+        while(i < len)
+        {
+            char c = args.charAt(i);
+            if(!isIdentifierStart(c))
+            {
+                // Skip numbers ($hex, decimal) whole.
+                i++;
+                if(c == '$' || (c >= '0' && c <= '9'))
+                    while(i < len && isIdentifier(args.charAt(i))) i++;
+                continue;
+            }
+
+            int start = i;
+            while(i < len && isIdentifier(args.charAt(i))) i++;
+
+            // Register names
+            if(i - start == 1)
+            {
+                char reg = (char) (c | 0x20);
+                if(len == 1 && reg == 'a') continue;
+                if(start > 0 && args.charAt(start - 1) == ',' && (reg == 'x' || reg == 'y')) continue;
+            }
+
+            String name = args.substring(start, i);
+            String value = defines.get(name);
+            if(value == null)
+            {
+                if(instr.symbol != null) return null;
+                instr.symbol = name;
+                value = isBranch(instr.name) ? "$00" : "$0000";
+            }
+
+            if(output == null) output = new StringBuilder(len + 8);
+            output.append(args, copied, start).append(value);
+            copied = i;
+        }
+
+        if(output == null) return args;
+        return output.append(args, copied, len).toString();
+    }
+
+    protected static boolean isLabelName(String name)
+    {
+        if(name.isEmpty() || !isIdentifierStart(name.charAt(0))) return false;
+        for(int i = 1; i < name.length(); i++)
+            if(!isIdentifier(name.charAt(i))) return false;
+        return true;
+    }
+
+    // Trims and removes comments, null when nothing is left.
+    protected static String clean(String line)
+    {
+        int commentIndex = line.indexOf(';');
+        if(commentIndex >= 0) line = line.substring(0, commentIndex);
+        line = line.trim();
+        return line.isEmpty() ? null : line;
+    }
+
+    private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
+    private static void appendHex(StringBuilder out, int value, int digits)
+    {
+        for(int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+            out.append(hexDigits[(value >> shift) & 0x0F]);
+    }
+
+    // Formats bytes as "0600: a9 00 ..." lines, 16 aligned bytes per line.
+    protected static String[] toHexListing(int origin, byte[] code, int size)
+    {
+        ArrayList<String> listing = new ArrayList<>();
+        StringBuilder line = new StringBuilder(6 + 16 * 3);
+        for(int i = origin; i < origin + size; i++)
+        {
+            if( (i & 0x0F) == 0 || i == origin )
+            {
+                if(line.length() > 0)
+                {
+                    listing.add(line.toString());
+                    line.setLength(0); // Clear line.
+                }
+                appendHex(line, i, 4);
+                line.append(": ");
+            }
+            appendHex(line, code[i - origin], 2);
+            line.append(' ');
+        }
+        if(line.length() > 0) listing.add(line.toString());
+
+        String[] asm = new String[listing.size()];
+        return listing.toArray(asm);
+    }
+
+    // Resources bundled with the core module first, then the caller's class loader.
+    protected static InputStream openResource(String file)
+    {
+        InputStream fileIO = Assemble6502.class.getResourceAsStream("/" + file);
+        if(fileIO == null) fileIO = Thread.currentThread().getContextClassLoader().getResourceAsStream(file);
+        return fileIO;
+    }
+
+    protected static String[] readLines(String file)
+    {
+        ArrayList<String> inputLines = new ArrayList<>();
+
+        InputStream fileIO = openResource(file);
+        if(fileIO == null)
+        {
+            System.out.format("Resource not found -> %s\n", file);
+            return null;
+        }
+        Scanner scan = new Scanner(fileIO);
+
+        // Read lines
+        while(scan.hasNextLine()) inputLines.add(scan.nextLine());
+
+        String[] data = new String[inputLines.size()];
+        inputLines.toArray(data);
+        return data;
+    }
+
+    public static String[] assemble(String file)
+    {
+        return assemble(readLines(file));
+    }
+
+    public static Program6502 assembleProgram(String file)
+    {
+        return assembleProgram(readLines(file));
+    }
+
+    // Assembles to a hex listing, printed to stdout.
+    public static String[] assemble(String[] data)
+    {
+        Program6502 program = assembleProgram(data);
+        if(program == null) return null;
+
+        System.out.format("@entry %04x\n", program.origin);
+        String[] asm = program.toHexListing();
+
+        System.out.println();
+        for(String s : asm)
+        {
+            System.out.println(s);
+        }
+
+        return asm;
+    }
+
+    // Parses the instruction part of a line (label already removed).
+    // Returns null for an empty line, bytes is null on a syntax error.
+    protected static InstrData parseInstruction(String line, int lineNumber, Map<String, String> defines)
+    {
+        String code = compact(line);
+        if(code.isEmpty()) return null;
+
+        var bytecode = new InstrData(code.length() < 3 ? code : code.substring(0, 3).toUpperCase(), null, null);
+        bytecode.line = lineNumber;
+        String args = code.length() < 3 ? null : resolveSymbols(code.substring(3), defines, bytecode);
+        if(args != null)
+        {
+            bytecode.args = args.toLowerCase();
+            encode(bytecode);
+        }
+        return bytecode;
+    }
+
+    // Assembles a single line at address against known labels,
+    // null after printing an error. Lines defining labels are rejected.
+    protected static byte[] assembleLine(String line, int lineNumber, int address,
+                                         Map<String, String> defines, Map<String, Integer> labels)
+    {
+        line = clean(line);
+        if(line == null) return new byte[0];
+        if(isDirective(line))
+        {
+            System.out.format("Not an instruction -> %s (line %d)\n", line, lineNumber);
+            return null;
+        }
+
+        var bytecode = parseInstruction(line, lineNumber, defines);
+        if(bytecode == null) return new byte[0];
+        if(bytecode.bytes == null)
+        {
+            System.out.format("Syntax error -> %s (line %d)\n", line, lineNumber);
+            return null;
+        }
+
+        byte[] output = new byte[bytecode.bytes.length];
+        for(int i = 0; i < output.length; i++) output[i] = (byte) bytecode.bytes[i];
+        if(bytecode.symbol != null && !new Fixup(1, bytecode.symbol, isBranch(bytecode.name), lineNumber).apply(output, address, labels))
+            return null;
+        return output;
+    }
+
+    // True for lines that define symbols or move the origin.
+    protected static boolean isDirective(String line)
+    {
+        return line.indexOf(':') >= 0 || line.startsWith("define") || line.startsWith(".");
+    }
+
+    // Assembles to a binary image, optionally through Optimizer6502.
+    public static Program6502 assembleProgram(String[] data, boolean optimize)
+    {
+        if(!optimize) return assembleProgram(data);
+        if(data == null) return null;
+        return new Optimizer6502().assemble(data);
+    }
+
+    // Assembles to a binary image.
+    public static Program6502 assembleProgram(String[] data)
+    {
+        if(data == null) return null;
+        Object6502 object = assembleObject("", data);
+        if(object == null) return null;
+        return Linker6502.link(List.of(object));
+    }
+
+    // Assembles to a relocatable object, labels are offsets from the start
+    // of the object. Labels not defined in data become imports.
+    public static Object6502 assembleObject(String name, String[] data)
+    {
+        int entryPoint = -1;
+        Map<String, String> asmVars = new HashMap<>();
+        Set<String> exports = new HashSet<>();
+
+        // Filter data, collect variables, exports and entry point.
+        String[] fData = new String[data.length];
+        for(int i = 0; i < data.length; i++)
+        {
+            String line = clean(data[i]);
+            if(line == null) continue;
+
+            // Determine entry point.
+            if(line.startsWith(".entry"))
+            {
+                String arg = line.substring(6).trim();
+                int addr = arg.startsWith("$") ? parseHex(arg.toLowerCase(), 1, arg.length() - 1) : -1;
+                if(addr < 0 || addr > 0xFFFF)
+                {
+                    System.out.format("Syntax error -> %s (%sline %d)\n", line, name.isEmpty() ? "" : name + " ", i + 1);
+                    return null;
+                }
+                entryPoint = addr;
+                continue;
+            }
+
+            // Exported labels
+            if(line.startsWith(".export"))
+            {
+                for(String label : line.substring(7).trim().split("[\\s,]+"))
+                {
+                    if(!isLabelName(label))
+                    {
+                        System.out.format("Syntax error -> %s (%sline %d)\n", line, name.isEmpty() ? "" : name + " ", i + 1);
+                        return null;
+                    }
+                    exports.add(label);
+                }
+                continue;
+            }
+
+            // Find variables
+            if(line.startsWith("define") && line.length() > 6 && Character.isWhitespace(line.charAt(6)))
+            {
+                String[] varArgs = line.split("\\s+");
+                if(varArgs.length != 3 || !isLabelName(varArgs[1]))
+                {
+                    System.out.format("Syntax error -> %s (%sline %d)\n", line, name.isEmpty() ? "" : name + " ", i + 1);
+                    return null;
+                }
+                asmVars.put(varArgs[1], varArgs[2]);
+                continue;
+            }
+
+            fData[i] = line;
+        }
+
+        // Symbol table (offsets) and pending label references.
+        Map<String, Integer> asmLabels = new HashMap<>();
+        ArrayList<Fixup> fixups = new ArrayList<>();
+        byte[] output = new byte[256];
+        int byteCount = 0;
+
+        // Image offset of each source line, lineStart[i+1] - lineStart[i] is its size.
+        int[] lineStart = new int[fData.length + 1];
+
+        // To Bytecode
+        for(int i = 0; i < fData.length; i++)
+        {
+            lineStart[i] = byteCount;
+            String line = fData[i];
+            if(line == null) continue;
+
+            // Define labels
+            int labelEnd = line.indexOf(':');
+            if(labelEnd >= 0)
+            {
+                String label = line.substring(0, labelEnd).trim();
+                if(!isLabelName(label))
+                {
+                    System.out.format("Syntax error -> %s (%sline %d)\nInvalid label name.\n", line, name.isEmpty() ? "" : name + " ", i + 1);
+                    return null;
+                }
+                if(asmLabels.put(label, byteCount) != null)
+                {
+                    System.out.format("Duplicate label -> %s (%sline %d)\n", label, name.isEmpty() ? "" : name + " ", i + 1);
+                    return null;
+                }
+                line = line.substring(labelEnd + 1);
+            }
+
+            var bytecode = parseInstruction(line, i + 1, asmVars);
+            if(bytecode == null) continue;
+            if(bytecode.bytes == null)
+            {
+                System.out.format("Syntax error -> %s (%sline %d)\n", line.trim(), name.isEmpty() ? "" : name + " ", i + 1);
+                return null;
+            }
+
+            if(bytecode.symbol != null)
+                fixups.add(new Fixup(byteCount + 1, bytecode.symbol, isBranch(bytecode.name), bytecode.line));
+
+            if(byteCount + bytecode.bytes.length > output.length)
+                output = Arrays.copyOf(output, Math.max(output.length * 2, byteCount + bytecode.bytes.length));
+            for(int b : bytecode.bytes) output[byteCount++] = (byte) b;
+        }
+        lineStart[fData.length] = byteCount;
+
+        for(String label : exports)
+        {
+            if(!asmLabels.containsKey(label))
+            {
+                System.out.format("Undefined export -> %s%s\n", label, name.isEmpty() ? "" : " (" + name + ")");
+                return null;
+            }
+        }
+
+        // Local branches are position independent and patched now,
+        // everything else is left for the linker.
+        ArrayList<Fixup> relocations = new ArrayList<>();
+        for(Fixup fixup : fixups)
+        {
+            Integer offset = asmLabels.get(fixup.symbol);
+            if(offset != null && fixup.relative)
+            {
+                if(!fixup.apply(output, 0, asmLabels)) return null;
+                continue;
+            }
+            if(offset != null)
+            {
+                output[fixup.offset] = (byte) offset.intValue();
+                output[fixup.offset + 1] = (byte) (offset >> 8);
+                fixup.symbol = null;
+            }
+            relocations.add(fixup);
+        }
+
+        return new Object6502(name, entryPoint, Arrays.copyOf(output, byteCount), asmLabels, exports,
+                relocations, asmVars, lineStart);
+    }
+}
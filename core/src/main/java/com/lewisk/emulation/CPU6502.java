@@ -1,16 +1,16 @@
 package com.lewisk.emulation;
 
-import javafx.scene.image.PixelWriter;
-import javafx.scene.paint.Color;
-
 import java.io.*;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.time.Clock;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 // Runs bytecode on 6502 VM also hosts memory and registers
 // on virtual CPU.
@@ -18,33 +18,54 @@ public class CPU6502 implements Runnable
 {
     // Define addressable memory.
     public static final int MEMSIZE = 0x10000;
+
+    // Waits longer than this are slept through in run().
+    protected static final int SLEEP_CYCLES = 64;
     private byte[] ram;
+
+    // Handlers by page (address >> 8) as set by map(), null pages are plain RAM.
+    protected final MemoryHandler6502[] mappings = new MemoryHandler6502[MEMSIZE >> 8];
+    // Handlers accesses go through, the mappings unless a heatmap is attached.
+    protected final MemoryHandler6502[] handlers = new MemoryHandler6502[MEMSIZE >> 8];
+    protected Heatmap6502 heatmap;
     public double clockspeed;
     protected int waitCycles;
     protected long clock;
 
+    // Cycle budget carried between frames in frame-locked mode.
+    protected double frameCycles;
+    private final Random rng = new Random();
+
     // IO
-    public PixelWriter display;
-
-    // Colors
-    public static final Color[] colortable =
-    {
-            Color.web("0x000000", 1.0),
-            Color.web("0xFFFFFF", 1.0),
-            Color.web("0x880000", 1.0),
-            Color.web("0xAAFFEE", 1.0),
-            Color.web("0xCC44CC", 1.0),
-            Color.web("0x00CC55", 1.0),
-            Color.web("0x0000AA", 1.0),
-            Color.web("0xEEEE77", 1.0),
-            Color.web("0xDD8855", 1.0),
-            Color.web("0x664400", 1.0),
-            Color.web("0xFF7777", 1.0),
-            Color.web("0x333333", 1.0),
-            Color.web("0x777777", 1.0),
-            Color.web("0xAAFF66", 1.0),
-            Color.web("0x0088FF", 1.0),
-            Color.web("0xBBBBBB", 1.0)
+    public Display6502 display;
+    public FrameCapture6502 capture;
+    public FrameStream6502 stream;
+    public WriteLog6502 writes;
+    public IdleDetector6502 idle;
+    public Traps6502 traps;
+
+    // Set by the idle detector when the program spins waiting for memory to change.
+    protected boolean waitingForInput;
+
+    // Colors (0xAARRGGBB)
+    public static final int[] palette =
+    {
+            0xFF000000,
+            0xFFFFFFFF,
+            0xFF880000,
+            0xFFAAFFEE,
+            0xFFCC44CC,
+            0xFF00CC55,
+            0xFF0000AA,
+            0xFFEEEE77,
+            0xFFDD8855,
+            0xFF664400,
+            0xFFFF7777,
+            0xFF333333,
+            0xFF777777,
+            0xFFAAFF66,
+            0xFF0088FF,
+            0xFFBBBBBB
     };
 
     // Flags
@@ -87,6 +108,12 @@ public class CPU6502 implements Runnable
     // True when execution is to be stopped.
     public boolean halt;
 
+    // Why execution halted if not by BRK (e.g. "invalid opcode $02"), null otherwise.
+    public String fault;
+
+    // Work to run on the CPU thread between instructions.
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
     public CPU6502()
     {
         // Initialize
@@ -125,17 +152,76 @@ public class CPU6502 implements Runnable
     // RAM
     public byte readRAM(short address)
     {
-        return ram[Short.toUnsignedInt(address)];
+        int addr = Short.toUnsignedInt(address);
+        MemoryHandler6502 handler = handlers[addr >> 8];
+        if(handler != null) return handler.read(addr);
+        return ram[addr];
+    }
+
+    // Host side read, mapped pages are peeked so guest I/O is left untouched.
+    public byte peekRAM(short address)
+    {
+        int addr = Short.toUnsignedInt(address);
+        MemoryHandler6502 handler = handlers[addr >> 8];
+        if(handler != null) return handler.peek(addr);
+        return ram[addr];
     }
 
     public void writeRAM(short address, int value)
     {
-        ram[Short.toUnsignedInt(address)] = (byte) value;
+        int addr = Short.toUnsignedInt(address);
+        MemoryHandler6502 handler = handlers[addr >> 8];
+        if(handler != null)
+            handler.write(addr, value);
+        else
+            ram[addr] = (byte) value;
+        if(writes != null) writes.record(address, value);
+        if(idle != null) idle.written(addr);
 
         // Update display
         if(address >= 0x0200 && address <= 0x5ff) DrawVRAM(address);
     }
 
+    // Host side write into the backing memory, not logged, drawn or seen by handlers as I/O.
+    // False if the page is mapped to a handler that can't take it (see MemoryHandler6502.poke).
+    public boolean pokeRAM(short address, int value)
+    {
+        int addr = Short.toUnsignedInt(address);
+        if(idle != null) idle.written(addr);
+        MemoryHandler6502 handler = handlers[addr >> 8];
+        if(handler != null) return handler.poke(addr, value);
+        ram[addr] = (byte) value;
+        return true;
+    }
+
+    // Routes pages [firstPage, firstPage + pageCount) to handler, null restores RAM.
+    public void map(int firstPage, int pageCount, MemoryHandler6502 handler)
+    {
+        for(int page = firstPage; page < firstPage + pageCount; page++)
+        {
+            mappings[page & 0xFF] = handler;
+            handlers[page & 0xFF] = heatmap != null ? heatmap : handler;
+        }
+    }
+
+    // Puts heatmap in front of every page, it forwards to the mappings. Null removes it.
+    protected void setHeatmap(Heatmap6502 heatmap)
+    {
+        this.heatmap = heatmap;
+        for(int page = 0; page < mappings.length; page++) map(page, 1, mappings[page]);
+    }
+
+    // True if any page of the range is mapped to a handler. A heatmap alone
+    // does not count, bulk copies go around it to the backing RAM.
+    protected boolean isMapped(int address, int length)
+    {
+        for(int page = address >> 8; page <= (address + length - 1) >> 8; page++)
+        {
+            if(mappings[page & 0xFF] != null) return true;
+        }
+        return false;
+    }
+
     protected void writeRAM_WithFlags(short address, int value)
     {
         writeRAM(address, value);
@@ -163,8 +249,12 @@ public class CPU6502 implements Runnable
     public void importRAM(short from, int... mem) { for(int b: mem) writeRAM(from++, b); }
     public void importRAM(String file)
     {
-        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
-        InputStream fileIO = classloader.getResourceAsStream(file);
+        InputStream fileIO = Assemble6502.openResource(file);
+        if(fileIO == null)
+        {
+            System.out.format("Resource not found -> %s\n", file);
+            return;
+        }
         Scanner scan = new Scanner(fileIO);
 
         // Read lines
@@ -176,6 +266,59 @@ public class CPU6502 implements Runnable
         importRAM(memData);
     }
 
+    public void importRAM(Program6502 program)
+    {
+        if(program == null)
+        {
+            System.out.println("No data to import.");
+            return;
+        }
+        importRAM(program.origin, program.bytes, 0, program.bytes.length);
+    }
+
+    // Bulk copy into RAM, wrapping at the end of the address space.
+    public void importRAM(int address, byte[] data, int offset, int length)
+    {
+        address &= MEMSIZE - 1;
+        if(idle != null) idle.invalidate();
+        if(isMapped(address, length))
+        {
+            for(int i = 0; i < length; i++) writeRAM((short) (address + i), data[offset + i]);
+        }
+        else
+        {
+            int first = Math.min(length, MEMSIZE - address);
+            System.arraycopy(data, offset, ram, address, first);
+            if(first < length) System.arraycopy(data, offset + first, ram, 0, length - first);
+
+            // Update display
+            if(first < length || (address <= 0x05FF && address + length > 0x0200)) DrawVRAM();
+        }
+        if(traps != null) traps.install();
+    }
+
+    // Bulk copy the remaining bytes of data (e.g. a mapped file) into RAM.
+    public void importRAM(int address, ByteBuffer data)
+    {
+        address &= MEMSIZE - 1;
+        int length = Math.min(data.remaining(), MEMSIZE);
+        if(idle != null) idle.invalidate();
+        if(isMapped(address, length))
+        {
+            for(int i = 0; i < length; i++) writeRAM((short) (address + i), data.get());
+        }
+        else
+        {
+            int first = Math.min(length, MEMSIZE - address);
+            data.get(ram, address, first);
+            if(first < length) data.get(ram, 0, length - first);
+
+            // Update display
+            if(first < length || (address <= 0x05FF && address + length > 0x0200)) DrawVRAM();
+        }
+        if(traps != null) traps.install();
+    }
+
     public void importRAM(String[] memData)
     {
         if(memData == null)
@@ -258,7 +401,7 @@ public class CPU6502 implements Runnable
     }
     protected byte readIndirectY()
     {
-        return readRAM(indirectX());
+        return readRAM(indirectY());
     }
 
     // Stack
@@ -296,22 +439,11 @@ public class CPU6502 implements Runnable
         setFlagsResult(R);
     }
 
-    protected void setFlagsADC(byte A, byte B)
+    // Stores an ALU6502 table entry into A and N, V, Z, C.
+    protected void setALUResult(char entry)
     {
-        int carryR = Byte.toUnsignedInt(A) + Byte.toUnsignedInt(B);
-        int intR = (int)A + (int)B;
-
-        if(carryR > 255) setFlag(Flags.Carry, true);
-        setFlagsResult((byte) carryR, intR);
-    }
-
-    protected void setFlagsSBC(byte A, byte B)
-    {
-        int carryR = Byte.toUnsignedInt(A) - Byte.toUnsignedInt(B);
-        int intR = (int)A - (int)B;
-
-        if(carryR < 0) setFlag(Flags.Carry, false);
-        setFlagsResult((byte) carryR, intR);
+        registers.A = (byte) entry;
+        cpuFlags = (byte) ((cpuFlags & ~ALU6502.FLAG_MASK) | (entry >> 8));
     }
 
     protected void setFlagsResult(byte byteResult)
@@ -320,11 +452,6 @@ public class CPU6502 implements Runnable
         setFlag(Flags.Negative, byteResult < 0);
 
     }
-    protected void setFlagsResult(byte byteResult, int intResult)
-    {
-        setFlagsResult(byteResult);
-        setFlag(Flags.Overflow, intResult > 128 || intResult < -127);
-    }
 
     // Registers
     protected void setRegA(byte value)
@@ -359,12 +486,19 @@ public class CPU6502 implements Runnable
         for (Flags f : Flags.values()) flag_bits.append(getFlag(f) ? '1' : '0');
         String flag_status = "NV-BDIZC\n" + flag_bits.reverse().toString();
 
-        return reg_status + "\n" + ptr_status + "\n" + flag_status + "\n";
+        StringBuilder instr_status = new StringBuilder();
+        try
+        {
+            Disassemble6502.disassemble(this, Short.toUnsignedInt(registers.PC), instr_status);
+        }
+        catch (IOException ignored) {} // StringBuilder does not throw
+
+        return reg_status + "\n" + ptr_status + "\n" + flag_status + "\n" + instr_status + "\n";
     }
 
     protected int executeInstruction(byte opcode)
     {
-        var instruction = Opcode6502.getInstruction(opcode);
+        var instruction = Opcode6502.instructions[opcode & 0xFF];
         int cycles = 0;
         try
         {
@@ -373,6 +507,7 @@ public class CPU6502 implements Runnable
         catch (Exception e)
         {
             System.out.format("Encountered critical error executing instruction: %02x\nExecution halted at: %04x \n >> %s", opcode, registers.PC, e.toString());
+            fault = String.format("error in opcode $%02x", opcode);
             halt = true;
         }
         registers.PC++;
@@ -394,11 +529,34 @@ public class CPU6502 implements Runnable
             if( (i & 0x0F) == 0 )
                 System.out.format("\n%04x: ", i);
 
-            System.out.format("%02x ", readRAM((short) i));
+            System.out.format("%02x ", peekRAM((short) i));
         }
         System.out.println();
     }
 
+    // Backing memory (unmapped pages only), for bulk comparison.
+    protected byte[] getRAM()
+    {
+        return ram;
+    }
+
+    // Bulk copy out of RAM (no wrapping), mapped pages are peeked through their handlers.
+    public void exportRAM(int address, byte[] dst, int offset, int length)
+    {
+        if(isMapped(address, length))
+        {
+            for(int i = 0; i < length; i++) dst[offset + i] = peekRAM((short) (address + i));
+            return;
+        }
+        System.arraycopy(ram, address, dst, offset, length);
+    }
+
+    // Copy VRAM ($0200-$05FF) into dst.
+    public void readVRAM(byte[] dst)
+    {
+        exportRAM(0x0200, dst, 0, 0x0400);
+    }
+
     public void DrawVRAM()
     {
         if(display == null) return;
@@ -406,8 +564,8 @@ public class CPU6502 implements Runnable
         x = y = 0;
         for (short i = 0x0200; i < 0x0600; i++)
         {
-            var pixel = readRAM(i) & 0x0F;
-            display.setColor(x, y, colortable[pixel]);
+            var pixel = peekRAM(i) & 0x0F;
+            display.setPixel(x, y, palette[pixel]);
             if (++x > 31)
             {
                 x = 0;
@@ -423,8 +581,8 @@ public class CPU6502 implements Runnable
         int x = offset % 32;
         int y = offset / 32;
 
-        var pixel = readRAM(addr) & 0x0F;
-        display.setColor(x, y, colortable[pixel]);
+        var pixel = peekRAM(addr) & 0x0F;
+        display.setPixel(x, y, palette[pixel]);
     }
 
     // Start execution
@@ -432,9 +590,57 @@ public class CPU6502 implements Runnable
     {
         // Read from PC and execute instruction.
         byte opcode = readRAM(registers.PC);
-        int cycles = executeInstruction(opcode);
+        int skipped = 0;
+        if(idle != null && (opcode & 0x1F) == 0x10) skipped = idle.branch(this, Short.toUnsignedInt(registers.PC), opcode & 0xFF);
+        int cycles = executeInstruction(opcode) + skipped;
         executiontime += cycles;
         waitCycles = cycles;
+
+        if(capture != null) capture.clock(this, cycles);
+        if(stream != null) stream.clock(this, cycles);
+    }
+
+    // Runs task between two instructions, immediately if halted.
+    public void post(Runnable task)
+    {
+        tasks.add(task);
+        if(halt) runTasks();
+    }
+
+    protected void runTasks()
+    {
+        Runnable task;
+        while((task = tasks.poll()) != null) task.run();
+    }
+
+    // Frame-locked execution, runs clockspeed / refreshRate cycles
+    // and returns. Cycles overrun in one frame are taken from the next.
+    public void runFrame(double refreshRate)
+    {
+        if(halt)
+        {
+            frameCycles = 0;
+            return;
+        }
+
+        runTasks();
+        frameCycles += clockspeed / refreshRate;
+        while(frameCycles > 0 && !halt)
+        {
+            // Get random number
+            writeRAM((short) 0x00FE, rng.nextInt() & 0xFF);
+
+            execute();
+            frameCycles -= waitCycles;
+
+            // Nothing changes until input arrives, give the rest of the frame back.
+            if(waitingForInput)
+            {
+                waitingForInput = false;
+                frameCycles = 0;
+            }
+        }
+        waitCycles = 0;
     }
 
     // Start execution
@@ -444,10 +650,10 @@ public class CPU6502 implements Runnable
         if(halt)
         {
             executiontime = 0;
+            fault = null;
             halt = false;
         }
 
-        Random rng = new Random();
         while(!halt)
         {
             if(Thread.interrupted())
@@ -469,8 +675,32 @@ public class CPU6502 implements Runnable
             // Only run if all cycles have been ran.
             if(waitCycles <= 0)
             {
+                if(!tasks.isEmpty()) runTasks();
                 execute();
+                if(waitingForInput) waitForInput();
+            }
+
+            // Sleep through long waits (skipped delay loops) instead of spinning.
+            if(waitCycles > SLEEP_CYCLES)
+            {
+                LockSupport.parkNanos((long) (waitCycles * hertzToNanoseconds(clockspeed)));
+                waitCycles = 0;
+                clock = System.nanoTime();
             }
         }
+        runTasks();
+    }
+
+    // Parks the thread while the idle loop would read the same values,
+    // the guest clock keeps running meanwhile.
+    protected void waitForInput()
+    {
+        waitingForInput = false;
+        long start = System.nanoTime();
+        while(!halt && tasks.isEmpty() && idle.unchanged(this) && !Thread.currentThread().isInterrupted())
+            LockSupport.parkNanos(IdleDetector6502.PARK_NANOS);
+
+        executiontime += (int) ((System.nanoTime() - start) / hertzToNanoseconds(clockspeed));
+        clock = System.nanoTime();
     }
 }
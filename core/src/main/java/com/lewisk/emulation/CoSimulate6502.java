@@ -0,0 +1,176 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Runs two CPU6502 engines in lockstep on the same program and inputs and
+// reports the first point where they disagree. The reference is usually a
+// plain CPU6502, the candidate a faster engine that must behave identically.
+public class CoSimulate6502
+{
+    private static final int TRACE = 16;
+
+    private final CPU6502 reference;
+    private final CPU6502 candidate;
+
+    // Instructions between register and write log checks, 1 checks every instruction.
+    public int interval = 1;
+    // Instructions between full memory comparisons, 0 only compares at the end.
+    public int memoryInterval = 100000;
+    // Seed for the random byte at $FE.
+    public long seed;
+
+    // Key presses written to $FF, by instruction count.
+    private final TreeMap<Long, Byte> keys = new TreeMap<>();
+
+    // Last executed PCs of the reference, for context.
+    private final int[] trace = new int[TRACE];
+
+    // Whole address spaces as the guests see them, mapped pages included.
+    private final byte[] expected = new byte[CPU6502.MEMSIZE];
+    private final byte[] actual = new byte[CPU6502.MEMSIZE];
+
+    // Statistics
+    public long executed;
+
+    public CoSimulate6502(CPU6502 reference, CPU6502 candidate)
+    {
+        this.reference = reference;
+        this.candidate = candidate;
+    }
+
+    public void key(long instruction, int value)
+    {
+        keys.put(instruction, (byte) value);
+    }
+
+    // Loads program into both engines and runs up to limit instructions,
+    // returns null if they agree or a report of the first mismatch.
+    public String run(Program6502 program, long limit)
+    {
+        reference.importRAM(program);
+        candidate.importRAM(program);
+        reference.registers.PC = candidate.registers.PC = (short) program.origin;
+        reference.halt = candidate.halt = false;
+
+        WriteLog6502 referenceWrites = new WriteLog6502();
+        WriteLog6502 candidateWrites = new WriteLog6502();
+        reference.writes = referenceWrites;
+        candidate.writes = candidateWrites;
+
+        Random rng = new Random(seed);
+        long checkpoint = executed;
+        String mismatch = null;
+        try
+        {
+            while(executed < limit && !reference.halt && !candidate.halt)
+            {
+                // Same inputs on both sides
+                byte random = (byte) rng.nextInt();
+                reference.writeRAM((short) 0x00FE, random);
+                candidate.writeRAM((short) 0x00FE, random);
+                Byte key = keys.get(executed);
+                if(key != null)
+                {
+                    reference.writeRAM((short) 0x00FF, key);
+                    candidate.writeRAM((short) 0x00FF, key);
+                }
+
+                trace[(int) (executed % TRACE)] = Short.toUnsignedInt(reference.registers.PC);
+                reference.execute();
+                candidate.execute();
+                executed++;
+
+                if(executed - checkpoint >= interval)
+                {
+                    checkpoint = executed;
+                    mismatch = compareState();
+                    if(mismatch == null) mismatch = compareWrites(referenceWrites, candidateWrites);
+                    if(mismatch != null) break;
+                    referenceWrites.clear();
+                    candidateWrites.clear();
+                }
+
+                if(memoryInterval > 0 && executed % memoryInterval == 0 && (mismatch = compareMemory()) != null) break;
+            }
+
+            if(mismatch == null) mismatch = compareState();
+            if(mismatch == null) mismatch = compareWrites(referenceWrites, candidateWrites);
+            if(mismatch == null) mismatch = compareMemory();
+        }
+        finally
+        {
+            reference.writes = null;
+            candidate.writes = null;
+        }
+
+        return mismatch == null ? null : report(mismatch);
+    }
+
+    private static long state(CPU6502 cpu)
+    {
+        var r = cpu.registers;
+        return ((long) Short.toUnsignedInt(r.PC) << 40)
+             | ((long) (r.SP & 0xFF) << 32)
+             | ((r.A & 0xFF) << 24)
+             | ((r.X & 0xFF) << 16)
+             | ((r.Y & 0xFF) << 8)
+             |  (cpu.cpuFlags & 0xFF);
+    }
+
+    private String compareState()
+    {
+        if(state(reference) != state(candidate))
+            return "Registers differ";
+        if(reference.executiontime != candidate.executiontime)
+            return String.format("Cycle count differs: %d vs %d", reference.executiontime, candidate.executiontime);
+        if(reference.halt != candidate.halt)
+            return String.format("Halt state differs: %b vs %b", reference.halt, candidate.halt);
+        return null;
+    }
+
+    private static String compareWrites(WriteLog6502 expected, WriteLog6502 actual)
+    {
+        int index = expected.mismatch(actual);
+        if(index < 0) return null;
+        return String.format("Write #%d since last check differs: %s vs %s", index, describe(expected, index), describe(actual, index));
+    }
+
+    private static String describe(WriteLog6502 log, int index)
+    {
+        if(index >= log.size()) return "none";
+        return String.format("$%04x <- $%02x", log.address(index), log.value(index));
+    }
+
+    private String compareMemory()
+    {
+        reference.exportRAM(0, expected, 0, expected.length);
+        candidate.exportRAM(0, actual, 0, actual.length);
+        int address = Arrays.mismatch(expected, actual);
+        if(address < 0) return null;
+        return String.format("Memory differs at $%04x: $%02x vs $%02x", address, expected[address], actual[address]);
+    }
+
+    private String report(String mismatch)
+    {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Divergence after %d instructions\n >> %s\n", executed, mismatch));
+        out.append("\nRecent instructions (reference):\n");
+        reference.exportRAM(0, expected, 0, expected.length);
+        try
+        {
+            for(long i = Math.max(0, executed - TRACE); i < executed; i++)
+            {
+                int pc = trace[(int) (i % TRACE)];
+                Disassemble6502.disassemble(expected, pc, pc + 1, out);
+            }
+        }
+        catch (IOException ignored) {} // StringBuilder does not throw
+
+        out.append("\nReference:\n").append(reference.getCPUInfo());
+        out.append("\nCandidate:\n").append(candidate.getCPUInfo());
+        return out.toString();
+    }
+}
@@ -0,0 +1,279 @@
+package com.lewisk.emulation;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Address to source map and symbol table of an assembled program.
+// Line ranges and symbols are kept sorted by address in flat arrays,
+// so looking up an address is a binary search and allocates nothing.
+//
+// File format (big endian, strings are a short length and UTF-8):
+//   MAGIC, VERSION
+//   file count, file names
+//   range count, ranges of start (short), length (short), file (short), line (int)
+//   symbol count, symbols of address (short), name
+//   define count, defines of name, value
+public class DebugInfo6502
+{
+    public static final int MAGIC = 0x44424736; // "DBG6"
+    public static final int VERSION = 1;
+
+    public final String[] files;
+
+    // Source line i covers [rangeStart[i], rangeEnd[i]).
+    private final int[] rangeStart;
+    private final int[] rangeEnd;
+    private final int[] rangeFile;
+    private final int[] rangeLine;
+
+    private final int[] symbolAddress;
+    private final String[] symbolName;
+    private final Map<String, Integer> symbols;
+
+    public final Map<String, String> defines;
+
+    protected DebugInfo6502(String[] files, int[][] ranges, int rangeCount, Map<String, Integer> symbols, Map<String, String> defines)
+    {
+        this.files = files;
+        rangeStart = Arrays.copyOf(ranges[0], rangeCount);
+        rangeEnd = Arrays.copyOf(ranges[1], rangeCount);
+        rangeFile = Arrays.copyOf(ranges[2], rangeCount);
+        rangeLine = Arrays.copyOf(ranges[3], rangeCount);
+        this.symbols = symbols;
+        this.defines = defines;
+
+        // Lowest address first, names break ties so the order is stable.
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(symbols.entrySet());
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+        symbolAddress = new int[sorted.size()];
+        symbolName = new String[sorted.size()];
+        for(int i = 0; i < symbolAddress.length; i++)
+        {
+            symbolAddress[i] = sorted.get(i).getValue();
+            symbolName[i] = sorted.get(i).getKey();
+        }
+    }
+
+    // Debug info of a program assembled from a single file, null without line information.
+    public static DebugInfo6502 of(Program6502 program, String file)
+    {
+        return of(program.origin, program.lineStart, program.symbols, program.defines, file);
+    }
+
+    public static DebugInfo6502 of(int origin, int[] lineStart, Map<String, Integer> symbols, Map<String, String> defines, String file)
+    {
+        if(lineStart == null) return null;
+        int[][] ranges = new int[4][lineStart.length];
+        int count = addRanges(ranges, 0, origin, lineStart, 0);
+        return new DebugInfo6502(new String[] { file }, ranges, count, symbols, defines);
+    }
+
+    // Debug info of objects linked into program, files are the object names.
+    // Defines are prefixed with the object name like local symbols when there are several objects.
+    public static DebugInfo6502 of(List<Object6502> objects, Program6502 program)
+    {
+        int[] base = Linker6502.place(objects);
+        if(base == null) return null;
+
+        boolean single = objects.size() == 1;
+        String[] files = new String[objects.size()];
+        int total = 0;
+        for(Object6502 object : objects) total += object.lineStart.length;
+
+        int[][] ranges = new int[4][total];
+        int count = 0;
+        Map<String, String> defines = new HashMap<>();
+        for(int i = 0; i < objects.size(); i++)
+        {
+            Object6502 object = objects.get(i);
+            files[i] = object.name;
+            count = addRanges(ranges, count, base[i], object.lineStart, i);
+            for(Map.Entry<String, String> e : object.defines.entrySet())
+                defines.put(single ? e.getKey() : Linker6502.stripExtension(object.name) + "." + e.getKey(), e.getValue());
+        }
+        return new DebugInfo6502(files, ranges, count, program.symbols, defines);
+    }
+
+    // Lines that emitted bytes, in address order.
+    private static int addRanges(int[][] ranges, int count, int base, int[] lineStart, int file)
+    {
+        for(int line = 0; line < lineStart.length - 1; line++)
+        {
+            if(lineStart[line + 1] == lineStart[line]) continue;
+            ranges[0][count] = base + lineStart[line];
+            ranges[1][count] = base + lineStart[line + 1];
+            ranges[2][count] = file;
+            ranges[3][count] = line + 1;
+            count++;
+        }
+        return count;
+    }
+
+    // Index of the source line holding address, -1 if none.
+    private int range(int address)
+    {
+        int i = Arrays.binarySearch(rangeStart, address);
+        if(i < 0) i = -i - 2;
+        return i >= 0 && address < rangeEnd[i] ? i : -1;
+    }
+
+    // Source file of the instruction at address, null if unknown.
+    public String file(int address)
+    {
+        int i = range(address);
+        return i < 0 ? null : files[rangeFile[i]];
+    }
+
+    // 1-based source line of the instruction at address, -1 if unknown.
+    public int line(int address)
+    {
+        int i = range(address);
+        return i < 0 ? -1 : rangeLine[i];
+    }
+
+    // First address of the instruction holding address, -1 if unknown.
+    public int lineAddress(int address)
+    {
+        int i = range(address);
+        return i < 0 ? -1 : rangeStart[i];
+    }
+
+    // "file:line" of address, null if unknown.
+    public String location(int address)
+    {
+        int i = range(address);
+        if(i < 0) return null;
+        String file = files[rangeFile[i]];
+        return (file.isEmpty() ? "line " : file + ":") + rangeLine[i];
+    }
+
+    // Label at exactly address, null if none.
+    public String label(int address)
+    {
+        int i = Arrays.binarySearch(symbolAddress, address);
+        if(i < 0) return null;
+        while(i > 0 && symbolAddress[i - 1] == address) i--;
+        return symbolName[i];
+    }
+
+    // "label" or "label+offset" for the closest label at or below address, null if none.
+    public String symbolize(int address)
+    {
+        int i = Arrays.binarySearch(symbolAddress, address);
+        if(i >= 0)
+        {
+            while(i > 0 && symbolAddress[i - 1] == address) i--;
+            return symbolName[i];
+        }
+        i = -i - 2;
+        if(i < 0) return null;
+        return symbolName[i] + "+" + (address - symbolAddress[i]);
+    }
+
+    // Address of a label, -1 if not defined.
+    public int address(String label)
+    {
+        Integer address = symbols.get(label);
+        return address == null ? -1 : address;
+    }
+
+    public int getRangeCount()
+    {
+        return rangeStart.length;
+    }
+
+    public void write(Path file) throws IOException
+    {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeShort(files.length);
+            for(String name : files) writeString(out, name);
+
+            out.writeInt(rangeStart.length);
+            for(int i = 0; i < rangeStart.length; i++)
+            {
+                out.writeShort(rangeStart[i]);
+                out.writeShort(rangeEnd[i] - rangeStart[i]);
+                out.writeShort(rangeFile[i]);
+                out.writeInt(rangeLine[i]);
+            }
+
+            out.writeInt(symbolAddress.length);
+            for(int i = 0; i < symbolAddress.length; i++)
+            {
+                out.writeShort(symbolAddress[i]);
+                writeString(out, symbolName[i]);
+            }
+
+            out.writeInt(defines.size());
+            for(Map.Entry<String, String> e : new TreeMap<>(defines).entrySet())
+            {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+        }
+    }
+
+    // Null after printing an error.
+    public static DebugInfo6502 read(Path file)
+    {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                System.out.format("Not a debug info file -> %s\n", file);
+                return null;
+            }
+
+            String[] files = new String[in.readUnsignedShort()];
+            for(int i = 0; i < files.length; i++) files[i] = readString(in);
+
+            int count = in.readInt();
+            int[][] ranges = new int[4][count];
+            for(int i = 0; i < count; i++)
+            {
+                ranges[0][i] = in.readUnsignedShort();
+                ranges[1][i] = ranges[0][i] + in.readUnsignedShort();
+                ranges[2][i] = in.readUnsignedShort();
+                ranges[3][i] = in.readInt();
+            }
+
+            Map<String, Integer> symbols = new HashMap<>();
+            for(int i = in.readInt(); i > 0; i--)
+            {
+                int address = in.readUnsignedShort();
+                symbols.put(readString(in), address);
+            }
+
+            Map<String, String> defines = new HashMap<>();
+            for(int i = in.readInt(); i > 0; i--) defines.put(readString(in), readString(in));
+
+            return new DebugInfo6502(files, ranges, count, symbols, defines);
+        }
+        catch (IOException e)
+        {
+            System.out.format("Could not read debug info -> %s\n >> %s\n", file, e.toString());
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,100 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+
+// Turns byte-code back into assembly using Opcode6502's metadata table.
+// Output is streamed into an Appendable, nothing is allocated per instruction.
+public class Disassemble6502
+{
+    private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
+    private static void appendHex(Appendable out, int value, int digits) throws IOException
+    {
+        for(int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+            out.append(hexDigits[(value >> shift) & 0x0F]);
+    }
+
+    // Appends "MNE operand" for one instruction at address, returns its length.
+    public static int disassemble(int address, int opcode, int low, int high, Appendable out) throws IOException
+    {
+        opcode &= 0xFF;
+        String name = Opcode6502.mnemonics[opcode];
+        if(name == null)
+        {
+            out.append("???");
+            return 1;
+        }
+
+        out.append(name);
+        int mode = Opcode6502.modes[opcode];
+        int word = (low & 0xFF) | ((high & 0xFF) << 8);
+        switch(mode)
+        {
+            case Opcode6502.ACC -> out.append(" A");
+            case Opcode6502.IMP -> {}
+            case Opcode6502.IMM -> { out.append(" #$"); appendHex(out, low, 2); }
+            case Opcode6502.ZP  -> { out.append(" $");  appendHex(out, low, 2); }
+            case Opcode6502.ZPX -> { out.append(" $");  appendHex(out, low, 2); out.append(",X"); }
+            case Opcode6502.ZPY -> { out.append(" $");  appendHex(out, low, 2); out.append(",Y"); }
+            case Opcode6502.ABS -> { out.append(" $");  appendHex(out, word, 4); }
+            case Opcode6502.ABX -> { out.append(" $");  appendHex(out, word, 4); out.append(",X"); }
+            case Opcode6502.ABY -> { out.append(" $");  appendHex(out, word, 4); out.append(",Y"); }
+            case Opcode6502.IN  -> { out.append(" ($"); appendHex(out, word, 4); out.append(')'); }
+            case Opcode6502.INX -> { out.append(" ($"); appendHex(out, low, 2); out.append(",X)"); }
+            case Opcode6502.INY -> { out.append(" ($"); appendHex(out, low, 2); out.append("),Y"); }
+            case Opcode6502.REL -> { out.append(" $");  appendHex(out, (address + 2 + (byte) low) & 0xFFFF, 4); }
+        }
+        return Opcode6502.lengths[opcode];
+    }
+
+    // One instruction read from memory (wrapping at its end).
+    public static int disassemble(byte[] memory, int address, Appendable out) throws IOException
+    {
+        int len = memory.length;
+        return disassemble(address, memory[address % len], memory[(address + 1) % len], memory[(address + 2) % len], out);
+    }
+
+    public static int disassemble(CPU6502 cpu, int address, Appendable out) throws IOException
+    {
+        return disassemble(address, cpu.peekRAM((short) address), cpu.peekRAM((short) (address + 1)),
+                cpu.peekRAM((short) (address + 2)), out);
+    }
+
+    // Listing of [from, to) as "0600: a9 10     LDA #$10" lines.
+    public static void disassemble(byte[] memory, int from, int to, Appendable out) throws IOException
+    {
+        disassemble(memory, from, to, null, out);
+    }
+
+    // Listing with labels on their own line and the source line of each instruction.
+    public static void disassemble(byte[] memory, int from, int to, DebugInfo6502 debug, Appendable out) throws IOException
+    {
+        int address = from;
+        while(address < to)
+        {
+            int opcode = memory[address % memory.length] & 0xFF;
+            int length = Opcode6502.lengths[opcode];
+
+            String label = debug == null ? null : debug.label(address);
+            if(label != null) out.append(label).append(":\n");
+
+            appendHex(out, address, 4);
+            out.append(": ");
+            for(int i = 0; i < 3; i++)
+            {
+                if(i < length)
+                {
+                    appendHex(out, memory[(address + i) % memory.length], 2);
+                    out.append(' ');
+                }
+                else out.append("   ");
+            }
+            out.append(' ');
+            disassemble(memory, address, out);
+            String location = debug == null ? null : debug.location(address);
+            if(location != null) out.append("  ; ").append(location);
+            out.append('\n');
+            address += length;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.lewisk.emulation;
+
+// Receives VRAM updates from a CPU6502, keeps the core free of any UI toolkit.
+// Matches javafx.scene.image.PixelWriter::setArgb.
+@FunctionalInterface
+public interface Display6502
+{
+    // argb is a CPU6502.palette entry.
+    void setPixel(int x, int y, int argb);
+}
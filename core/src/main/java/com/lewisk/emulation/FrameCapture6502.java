@@ -0,0 +1,238 @@
+package com.lewisk.emulation;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Records VRAM ($0200-$05FF) frames from a CPU6502 without a JavaFX stage.
+// Frames are copied into pooled buffers and handed to a writer thread,
+// if the writer falls behind frames are dropped instead of stalling the CPU
+// (lossless capture waits instead).
+public class FrameCapture6502 implements Runnable
+{
+    public static final int WIDTH = 32;
+    public static final int HEIGHT = 32;
+    public static final int FRAMESIZE = WIDTH * HEIGHT;
+
+    public enum Format
+    {
+        PNG, // One image per frame, output is a directory.
+        RAW, // Palette indices, FRAMESIZE bytes per frame.
+        RLE  // (count, index) byte pairs per frame.
+    }
+
+    // Handed to the writer to signal end of capture.
+    private static final byte[] END = new byte[0];
+
+    private final Path output;
+    private final Format format;
+    private final ArrayBlockingQueue<byte[]> frames;
+    private final ArrayBlockingQueue<byte[]> freeFrames;
+    private Thread writer;
+
+    // Cycles between captured frames.
+    public int cadence;
+    private long cycles;
+
+    // Wait for the writer instead of dropping frames, for offline runs.
+    public boolean lossless;
+
+    // Statistics
+    public volatile int captured;
+    public volatile int dropped;
+    public volatile int written;
+
+    public FrameCapture6502(Path output, Format format, int cadence, int queueSize)
+    {
+        this.output = output;
+        this.format = format;
+        this.cadence = cadence;
+        frames = new ArrayBlockingQueue<>(queueSize + 1);
+        freeFrames = new ArrayBlockingQueue<>(queueSize);
+        for(int i = 0; i < queueSize; i++) freeFrames.add(new byte[FRAMESIZE]);
+    }
+
+    public void start()
+    {
+        writer = new Thread(this, "FrameCapture6502");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Flushes queued frames and waits for the writer to finish.
+    public void stop() throws InterruptedException
+    {
+        if(writer == null) return;
+        frames.put(END);
+        writer.join();
+        writer = null;
+    }
+
+    // Called by the CPU after every instruction. One frame per cadence of guest
+    // time, an instruction spanning several (a skipped delay loop) repeats the frame.
+    public void clock(CPU6502 cpu, int elapsed)
+    {
+        if(cadence <= 0)
+        {
+            capture(cpu); // Every instruction
+            return;
+        }
+        cycles += elapsed;
+        while(cycles >= cadence)
+        {
+            cycles -= cadence;
+            capture(cpu);
+        }
+    }
+
+    // Copy current VRAM into a free buffer, only blocks when lossless.
+    public void capture(CPU6502 cpu)
+    {
+        byte[] frame = freeFrames.poll();
+        if(frame == null && lossless)
+        {
+            try
+            {
+                frame = freeFrames.take();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(frame == null)
+        {
+            dropped++;
+            return;
+        }
+        cpu.readVRAM(frame);
+        frames.add(frame);
+        captured++;
+    }
+
+    @Override
+    public void run()
+    {
+        OutputStream stream = null;
+        try
+        {
+            if(format == Format.PNG)
+                Files.createDirectories(output);
+            else
+                stream = new BufferedOutputStream(Files.newOutputStream(output));
+
+            byte[] scratch = new byte[FRAMESIZE * 2];
+            while(true)
+            {
+                byte[] frame = frames.take();
+                if(frame == END) break;
+
+                switch(format)
+                {
+                    case PNG -> Files.write(output.resolve(String.format("frame_%06d.png", written)), encodePNG(frame));
+                    case RAW -> stream.write(frame);
+                    case RLE -> stream.write(scratch, 0, encodeRLE(frame, scratch));
+                }
+                written++;
+                freeFrames.add(frame);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.format("Frame capture stopped, could not write to %s\n >> %s\n", output, e.toString());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if(stream != null)
+            {
+                try { stream.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // Writes (count, index) pairs into out, returns encoded length.
+    public static int encodeRLE(byte[] frame, byte[] out)
+    {
+        int len = 0;
+        int i = 0;
+        while(i < frame.length)
+        {
+            byte value = frame[i];
+            int run = 1;
+            while(i + run < frame.length && run < 255 && frame[i + run] == value) run++;
+            out[len++] = (byte) run;
+            out[len++] = value;
+            i += run;
+        }
+        return len;
+    }
+
+    public static byte[] encodePNG(byte[] frame) throws IOException
+    {
+        int[] rgb = new int[FRAMESIZE];
+        for(int i = 0; i < FRAMESIZE; i++) rgb[i] = CPU6502.palette[frame[i] & 0x0F];
+        return encodePNG(WIDTH, HEIGHT, rgb);
+    }
+
+    // Minimal 8-bit RGB PNG encoder, avoids pulling in java.desktop for ImageIO.
+    // rgb holds 0xRRGGBB values row by row.
+    public static byte[] encodePNG(int width, int height, int[] rgb) throws IOException
+    {
+        byte[] pixels = new byte[height * (1 + width * 3)];
+        int p = 0;
+        for(int y = 0; y < height; y++)
+        {
+            pixels[p++] = 0; // Filter: None
+            for(int x = 0; x < width; x++)
+            {
+                int color = rgb[y * width + x];
+                pixels[p++] = (byte) (color >> 16);
+                pixels[p++] = (byte) (color >> 8);
+                pixels[p++] = (byte) color;
+            }
+        }
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(pixels);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while(!deflater.finished()) compressed.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(png);
+        data.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.write(new byte[] { 8, 2, 0, 0, 0 }); // 8-bit, RGB, deflate, no filter, no interlace
+
+        writeChunk(data, "IHDR", header.toByteArray());
+        writeChunk(data, "IDAT", compressed.toByteArray());
+        writeChunk(data, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] body) throws IOException
+    {
+        byte[] name = type.getBytes();
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(body);
+
+        out.writeInt(body.length);
+        out.write(name);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,340 @@
+package com.lewisk.emulation;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Streams VRAM ($0200-$05FF) to a remote viewer, sending only what changed.
+// Attaching wraps the CPU's display, so dirty pixels are marked as they are
+// drawn and a frame only looks at those. VRAM pages mapped to a handler can
+// change without being drawn (shared memory written by another core), their
+// pixels are compared every frame. Frames with no change are not sent.
+//
+// Stream format (big endian):
+//   header  MAGIC, VERSION, width, height, 16 palette colors (ARGB ints)
+//   'K'     frame number (int), length (short), (count, index) pairs as encodeRLE
+//   'D'     frame number (int), run count (short), runs of
+//           start pixel (short), length (byte), palette indices two per byte, high nibble first
+//   'E'     end of stream
+// Frame numbers count every frame, a gap means the screen did not change.
+public class FrameStream6502 implements Display6502
+{
+    public static final int MAGIC = 0x46533635; // "FS65"
+    public static final int VERSION = 1;
+
+    private static final int KEYFRAME = 'K';
+    private static final int DELTA = 'D';
+    private static final int END = 'E';
+    private static final int MAX_RUN = 255;
+    // An unchanged pixel inside a run costs half a byte, a new run three.
+    private static final int MAX_GAP = 6;
+
+    private final DataOutputStream out;
+    private final String target;
+    private CPU6502 cpu;
+    private Display6502 next;
+
+    // Pixels drawn since the last frame, and the frame the viewer has.
+    private final long[] dirty = new long[FrameCapture6502.FRAMESIZE / 64];
+    private final byte[] sent = new byte[FrameCapture6502.FRAMESIZE];
+    private final byte[] current = new byte[FrameCapture6502.FRAMESIZE];
+    private final byte[] scratch = new byte[FrameCapture6502.FRAMESIZE * 2];
+
+    // Cycles between frames, and frames between keyframes.
+    public int cadence;
+    public int keyframeInterval = 300;
+    private long cycles;
+    private int frame;
+    private int lastKeyframe;
+    private boolean failed;
+
+    // Statistics
+    public int frames;
+    public int keyframes;
+    public int deltas;
+    public long bytes;
+
+    public FrameStream6502(OutputStream out, String target, int cadence)
+    {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.target = target;
+        this.cadence = cadence;
+    }
+
+    // target is "host:port" or "unix:<path>" for a listening viewer, anything else is a file.
+    public static FrameStream6502 open(String target, int cadence) throws IOException
+    {
+        if(target.startsWith("unix:"))
+            return new FrameStream6502(connect(UnixDomainSocketAddress.of(target.substring(5))), target, cadence);
+
+        int colon = target.lastIndexOf(':');
+        if(colon > 0 && target.substring(colon + 1).matches("\\d+"))
+            return new FrameStream6502(connect(new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)))), target, cadence);
+
+        return new FrameStream6502(Files.newOutputStream(Path.of(target)), target, cadence);
+    }
+
+    private static OutputStream connect(SocketAddress address) throws IOException
+    {
+        return Channels.newOutputStream(SocketChannel.open(address));
+    }
+
+    // Installs the stream as the display of cpu, the previous display still gets every pixel.
+    // Writes the header, the first frame is always a keyframe.
+    public void attach(CPU6502 cpu)
+    {
+        this.cpu = cpu;
+        next = cpu.display;
+        cpu.display = this;
+        cpu.stream = this;
+        frame = 0;
+        lastKeyframe = -1;
+
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(FrameCapture6502.WIDTH);
+            out.writeByte(FrameCapture6502.HEIGHT);
+            for(int color : CPU6502.palette) out.writeInt(color);
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    // Sends the last frame and closes the stream.
+    public void detach()
+    {
+        if(cpu == null) return;
+        if(cpu.stream == this) cpu.stream = null;
+        if(cpu.display == this) cpu.display = next;
+        flush();
+
+        try
+        {
+            if(!failed) out.writeByte(END);
+            out.close();
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+        cpu = null;
+    }
+
+    @Override
+    public void setPixel(int x, int y, int argb)
+    {
+        int index = y * FrameCapture6502.WIDTH + x;
+        dirty[index >> 6] |= 1L << index;
+        if(next != null) next.setPixel(x, y, argb);
+    }
+
+    // Called by the CPU after every instruction. Frame numbers follow guest time,
+    // an instruction spanning several cadences (a skipped delay loop) sends its
+    // state as the last of them and leaves a gap for the others.
+    public void clock(CPU6502 cpu, int elapsed)
+    {
+        if(cadence <= 0)
+        {
+            flush(); // Every instruction
+            return;
+        }
+        cycles += elapsed;
+        if(cycles < cadence) return;
+        long passed = cycles / cadence;
+        cycles -= passed * cadence;
+        frame += passed - 1;
+        frames += passed - 1;
+        flush();
+    }
+
+    // Sends the current frame, a keyframe once keyframeInterval frames have passed since the last.
+    public void flush()
+    {
+        if(failed || cpu == null) return;
+        try
+        {
+            int length = lastKeyframe < 0 || frame - lastKeyframe >= keyframeInterval ? keyframe() : delta();
+            if(length > 0)
+            {
+                out.flush();
+                bytes += length;
+            }
+        }
+        catch (IOException e)
+        {
+            fail(e);
+        }
+        frame++;
+        frames++;
+    }
+
+    private int keyframe() throws IOException
+    {
+        lastKeyframe = frame;
+        cpu.readVRAM(current);
+        for(int i = 0; i < current.length; i++) current[i] &= 0x0F;
+        System.arraycopy(current, 0, sent, 0, sent.length);
+        Arrays.fill(dirty, 0);
+
+        int length = FrameCapture6502.encodeRLE(current, scratch);
+        out.writeByte(KEYFRAME);
+        out.writeInt(frame);
+        out.writeShort(length);
+        out.write(scratch, 0, length);
+        keyframes++;
+        return 7 + length;
+    }
+
+    // Changed pixels as runs into scratch, runs bridge short unchanged gaps.
+    private int delta() throws IOException
+    {
+        markMapped();
+        int runs = 0;
+        int length = 0;
+        int start = -1;
+        int end = -1;
+        for(int word = 0; word < dirty.length; word++)
+        {
+            long bits = dirty[word];
+            dirty[word] = 0;
+            while(bits != 0)
+            {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                // Redrawn with the color the viewer already has.
+                if((cpu.peekRAM((short) (0x0200 + index)) & 0x0F) == sent[index]) continue;
+
+                if(start >= 0 && index - end <= MAX_GAP && index - start < MAX_RUN)
+                {
+                    end = index;
+                    continue;
+                }
+                if(start >= 0)
+                {
+                    length = writeRun(length, start, end);
+                    runs++;
+                }
+                start = end = index;
+            }
+        }
+        if(start < 0) return 0;
+        length = writeRun(length, start, end);
+        runs++;
+
+        out.writeByte(DELTA);
+        out.writeInt(frame);
+        out.writeShort(runs);
+        out.write(scratch, 0, length);
+        deltas++;
+        return 7 + length;
+    }
+
+    // Marks every pixel of mapped VRAM pages, 64 pixels per dirty word.
+    private void markMapped()
+    {
+        for(int page = 0; page < FrameCapture6502.FRAMESIZE >> 8; page++)
+        {
+            if(cpu.mappings[0x02 + page] != null) Arrays.fill(dirty, page << 2, (page + 1) << 2, -1L);
+        }
+    }
+
+    // Appends a run to scratch and marks its pixels as sent.
+    private int writeRun(int length, int start, int end)
+    {
+        int count = end - start + 1;
+        scratch[length++] = (byte) (start >> 8);
+        scratch[length++] = (byte) start;
+        scratch[length++] = (byte) count;
+        for(int i = 0; i < count; i += 2)
+        {
+            int high = pixel(start + i);
+            int low = i + 1 < count ? pixel(start + i + 1) : 0;
+            scratch[length++] = (byte) ((high << 4) | low);
+        }
+        return length;
+    }
+
+    private int pixel(int index)
+    {
+        byte pixel = (byte) (cpu.peekRAM((short) (0x0200 + index)) & 0x0F);
+        sent[index] = pixel;
+        return pixel;
+    }
+
+    private void fail(IOException e)
+    {
+        if(!failed) System.out.format("Frame stream stopped, could not write to %s\n >> %s\n", target, e.toString());
+        failed = true;
+    }
+
+    // Decodes a stream for a viewer, frame holds palette indices after each next().
+    public static class Reader
+    {
+        private final DataInputStream in;
+        public final int width;
+        public final int height;
+        public final int[] palette = new int[16];
+        public final byte[] frame;
+        private final byte[] scratch;
+
+        public Reader(InputStream in) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            if(this.in.readInt() != MAGIC || this.in.readUnsignedByte() != VERSION)
+                throw new IOException("Not a frame stream");
+            width = this.in.readUnsignedByte();
+            height = this.in.readUnsignedByte();
+            for(int i = 0; i < palette.length; i++) palette[i] = this.in.readInt();
+            frame = new byte[width * height];
+            scratch = new byte[width * height * 2];
+        }
+
+        // Applies the next record, returns its frame number or -1 at the end of the stream.
+        public int next() throws IOException
+        {
+            int type = in.read();
+            if(type < 0 || type == END) return -1;
+            int number = in.readInt();
+            switch(type)
+            {
+                case KEYFRAME -> {
+                    int length = in.readUnsignedShort();
+                    in.readFully(scratch, 0, length);
+                    int p = 0;
+                    for(int i = 0; i < length; i += 2)
+                    {
+                        for(int run = scratch[i] & 0xFF; run > 0; run--) frame[p++] = scratch[i + 1];
+                    }
+                }
+                case DELTA -> {
+                    int runs = in.readUnsignedShort();
+                    for(int r = 0; r < runs; r++)
+                    {
+                        int start = in.readUnsignedShort();
+                        int count = in.readUnsignedByte();
+                        for(int i = 0; i < count; i += 2)
+                        {
+                            int packed = in.readUnsignedByte();
+                            frame[start + i] = (byte) (packed >> 4);
+                            if(i + 1 < count) frame[start + i + 1] = (byte) (packed & 0x0F);
+                        }
+                    }
+                }
+                default -> throw new IOException("Bad frame record " + type);
+            }
+            return number;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.lewisk.emulation;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// Coverage-guided fuzzer for guest programs. Inputs set the starting
+// registers, poke zero page and drive the key ($FF) and random ($FE) bytes.
+// Inputs that execute new addresses are kept in the corpus, crashes
+// (illegal opcode, stack wrap, runaway loop) are saved once per kind and PC.
+//
+// Each worker thread owns one CPU that is reset by restoring only the pages
+// the last run wrote, the program is never re-assembled or re-loaded.
+public class Fuzz6502
+{
+    public enum Crash
+    {
+        ILLEGAL_OPCODE,
+        STACK_WRAP,
+        RUNAWAY
+    }
+
+    private static final int MAGIC = 0x46555A5A; // "FUZZ"
+
+    // One fuzz input.
+    public static class Input
+    {
+        public byte a, x, y, p;
+        public byte[] keys = new byte[0];   // written to $FF every keyInterval instructions
+        public byte[] random = new byte[0]; // written to $FE before every instruction, repeats
+        public byte[] memory = new byte[0]; // (zero page address, value) pairs poked before start
+
+        public Input copy()
+        {
+            Input copy = new Input();
+            copy.a = a; copy.x = x; copy.y = y; copy.p = p;
+            copy.keys = keys.clone();
+            copy.random = random.clone();
+            copy.memory = memory.clone();
+            return copy;
+        }
+
+        public void write(Path file) throws IOException
+        {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file))))
+            {
+                out.writeInt(MAGIC);
+                out.write(new byte[] { a, x, y, p });
+                for(byte[] data : new byte[][] { keys, random, memory })
+                {
+                    out.writeShort(data.length);
+                    out.write(data);
+                }
+            }
+        }
+
+        public static Input read(Path file) throws IOException
+        {
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+            {
+                if(in.readInt() != MAGIC) throw new IOException("Not a fuzz input: " + file);
+                Input input = new Input();
+                input.a = in.readByte(); input.x = in.readByte(); input.y = in.readByte(); input.p = in.readByte();
+                input.keys = in.readNBytes(in.readUnsignedShort());
+                input.random = in.readNBytes(in.readUnsignedShort());
+                input.memory = in.readNBytes(in.readUnsignedShort());
+                return input;
+            }
+        }
+    }
+
+    // CPU that records executed addresses and written pages.
+    protected static class FuzzCPU extends CPU6502
+    {
+        protected final long[] coverage = new long[MEMSIZE / 64];
+        protected final long[] dirty = new long[(MEMSIZE >> 8) / 64];
+
+        protected FuzzCPU()
+        {
+            // First reset loads every page.
+            Arrays.fill(dirty, -1L);
+        }
+
+        @Override
+        public void execute()
+        {
+            int pc = Short.toUnsignedInt(registers.PC);
+            coverage[pc >> 6] |= 1L << pc;
+            super.execute();
+        }
+
+        @Override
+        public void writeRAM(short address, int value)
+        {
+            int page = Short.toUnsignedInt(address) >> 8;
+            dirty[page >> 6] |= 1L << page;
+            super.writeRAM(address, value);
+        }
+    }
+
+    private final Program6502 program;
+    private final Path directory;
+    private final byte[] image = new byte[CPU6502.MEMSIZE];
+
+    public int threads = Runtime.getRuntime().availableProcessors();
+    public int maxInstructions = 100000;
+    public int keyInterval = 1000;
+    // Key codes the mutator likes to add, W A S D by default.
+    public byte[] keyDictionary = { 0x57, 0x41, 0x53, 0x44 };
+
+    // Shared state
+    private final long[] coverage = new long[CPU6502.MEMSIZE / 64];
+    private final ArrayList<Input> corpus = new ArrayList<>();
+    private final Set<String> crashes = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+
+    // Statistics
+    public final LongAdder executions = new LongAdder();
+    public volatile int covered;
+
+    public Fuzz6502(Program6502 program, Path directory)
+    {
+        this.program = program;
+        this.directory = directory;
+        System.arraycopy(program.bytes, 0, image, program.origin, Math.min(program.bytes.length, CPU6502.MEMSIZE - program.origin));
+    }
+
+    // Loads the saved corpus, or starts from one empty input.
+    protected void loadCorpus() throws IOException
+    {
+        Files.createDirectories(directory.resolve("queue"));
+        Files.createDirectories(directory.resolve("crashes"));
+        try(Stream<Path> files = Files.list(directory.resolve("queue")))
+        {
+            for(Path file : (Iterable<Path>) files.sorted()::iterator) corpus.add(Input.read(file));
+        }
+        try(Stream<Path> files = Files.list(directory.resolve("crashes")))
+        {
+            files.forEach(file -> crashes.add(file.getFileName().toString().replace(".bin", "")));
+        }
+        if(corpus.isEmpty()) corpus.add(new Input());
+    }
+
+    // Fuzzes for the given time, returns the number of distinct crashes.
+    public int run(long seconds) throws IOException, InterruptedException
+    {
+        loadCorpus();
+
+        // Replay the corpus to rebuild coverage.
+        FuzzCPU replay = new FuzzCPU();
+        synchronized(corpus)
+        {
+            for(Input input : new ArrayList<>(corpus)) execute(replay, input, false);
+        }
+
+        running = true;
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++)
+        {
+            workers[i] = new Thread(this::work, "Fuzz6502-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        while(System.nanoTime() < end)
+        {
+            Thread.sleep(Math.min(1000, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.format("execs %d (%.0f/s/core), corpus %d, covered %d, crashes %d\n",
+                    executions.sum(), executions.sum() / elapsed / threads, corpusSize(), covered, crashes.size());
+        }
+
+        running = false;
+        for(Thread worker : workers) worker.join();
+        return crashes.size();
+    }
+
+    private int corpusSize()
+    {
+        synchronized(corpus)
+        {
+            return corpus.size();
+        }
+    }
+
+    protected void work()
+    {
+        FuzzCPU cpu = new FuzzCPU();
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        while(running)
+        {
+            Input parent;
+            Input other;
+            synchronized(corpus)
+            {
+                parent = corpus.get(rng.nextInt(corpus.size()));
+                other = corpus.get(rng.nextInt(corpus.size()));
+            }
+
+            Input input = parent.copy();
+            int rounds = 1 + rng.nextInt(4);
+            for(int i = 0; i < rounds; i++) mutate(input, other, rng);
+            execute(cpu, input, true);
+            executions.increment();
+        }
+    }
+
+    // Restores RAM pages written by the last run and sets up registers.
+    protected void reset(FuzzCPU cpu, Input input)
+    {
+        byte[] ram = cpu.getRAM();
+        for(int i = 0; i < cpu.dirty.length; i++)
+        {
+            long bits = cpu.dirty[i];
+            while(bits != 0)
+            {
+                int page = (i << 6) + Long.numberOfTrailingZeros(bits);
+                System.arraycopy(image, page << 8, ram, page << 8, 0x100);
+                bits &= bits - 1;
+            }
+            cpu.dirty[i] = 0;
+        }
+        Arrays.fill(cpu.coverage, 0);
+
+        for(int i = 0; i + 1 < input.memory.length; i += 2) ram[input.memory[i] & 0xFF] = input.memory[i + 1];
+        cpu.dirty[0] |= 1; // Zero page
+
+        cpu.registers.PC = (short) program.origin;
+        cpu.registers.SP = (byte) 0xFF;
+        cpu.registers.A = input.a;
+        cpu.registers.X = input.x;
+        cpu.registers.Y = input.y;
+        cpu.cpuFlags = (byte) (input.p | 0x30);
+        cpu.executiontime = 0;
+        cpu.halt = false;
+    }
+
+    // Runs input once, keeps it if it found new coverage.
+    protected void execute(FuzzCPU cpu, Input input, boolean save)
+    {
+        reset(cpu, input);
+        Crash crash = null;
+        int crashPC = 0;
+        int key = 0;
+        int random = 0;
+        for(int n = 0; n < maxInstructions && !cpu.halt; n++)
+        {
+            if(n % keyInterval == 0 && key < input.keys.length) cpu.writeRAM((short) 0x00FF, input.keys[key++]);
+            if(input.random.length > 0)
+            {
+                cpu.writeRAM((short) 0x00FE, input.random[random++]);
+                if(random == input.random.length) random = 0;
+            }
+
+            crashPC = Short.toUnsignedInt(cpu.registers.PC);
+            int opcode = cpu.peekRAM(cpu.registers.PC) & 0xFF;
+            if(Opcode6502.mnemonics[opcode] == null)
+            {
+                crash = Crash.ILLEGAL_OPCODE;
+                break;
+            }
+
+            int sp = cpu.registers.SP & 0xFF;
+            cpu.execute();
+            if(opcode != 0x9A && Math.abs((cpu.registers.SP & 0xFF) - sp) > 0x80)
+            {
+                crash = Crash.STACK_WRAP;
+                break;
+            }
+        }
+        if(crash == null && !cpu.halt)
+        {
+            crash = Crash.RUNAWAY;
+            crashPC = Short.toUnsignedInt(cpu.registers.PC) & 0xFF00; // Loops move around, dedupe by page
+        }
+
+        if(crash != null) recordCrash(crash, crashPC, input);
+        if(isNew(cpu.coverage)) keep(cpu.coverage, input, save);
+    }
+
+    private boolean isNew(long[] local)
+    {
+        for(int i = 0; i < local.length; i++)
+        {
+            if((local[i] & ~coverage[i]) != 0) return true;
+        }
+        return false;
+    }
+
+    private void keep(long[] local, Input input, boolean save)
+    {
+        int id;
+        synchronized(corpus)
+        {
+            if(!isNew(local)) return;
+            int total = 0;
+            for(int i = 0; i < local.length; i++)
+            {
+                coverage[i] |= local[i];
+                total += Long.bitCount(coverage[i]);
+            }
+            covered = total;
+            if(!save) return;
+            corpus.add(input);
+            id = corpus.size();
+        }
+        save(directory.resolve("queue").resolve(String.format("id-%06d-cov-%d.bin", id, covered)), input);
+    }
+
+    private void recordCrash(Crash crash, int pc, Input input)
+    {
+        String name = String.format("%s-%04x", crash.name().toLowerCase(), pc);
+        if(!crashes.add(name)) return;
+        System.out.format("New crash: %s\n", name);
+        save(directory.resolve("crashes").resolve(name + ".bin"), input);
+    }
+
+    private void save(Path file, Input input)
+    {
+        try
+        {
+            input.write(file);
+        }
+        catch (IOException e)
+        {
+            System.out.format("Could not save fuzz input -> %s\n >> %s\n", file, e.toString());
+        }
+    }
+
+    protected void mutate(Input input, Input other, ThreadLocalRandom rng)
+    {
+        switch(rng.nextInt(7))
+        {
+            case 0 -> input.keys = mutateBytes(input.keys, 256, rng);
+            case 1 -> input.random = mutateBytes(input.random, 1024, rng);
+            case 2 -> input.memory = mutateBytes(input.memory, 64, rng);
+            case 3 -> {
+                byte value = (byte) rng.nextInt(256);
+                switch(rng.nextInt(4))
+                {
+                    case 0 -> input.a = value;
+                    case 1 -> input.x = value;
+                    case 2 -> input.y = value;
+                    default -> input.p = value;
+                }
+            }
+            case 4 -> input.keys = splice(input.keys, other.keys, rng);
+            case 5 -> input.random = splice(input.random, other.random, rng);
+            default -> {
+                if(input.keys.length < 256 && keyDictionary.length > 0)
+                {
+                    input.keys = Arrays.copyOf(input.keys, input.keys.length + 1);
+                    input.keys[input.keys.length - 1] = keyDictionary[rng.nextInt(keyDictionary.length)];
+                }
+            }
+        }
+    }
+
+    private static byte[] mutateBytes(byte[] data, int limit, ThreadLocalRandom rng)
+    {
+        int op = data.length == 0 ? 2 : rng.nextInt(4);
+        switch(op)
+        {
+            case 0 -> data[rng.nextInt(data.length)] ^= (byte) (1 << rng.nextInt(8));
+            case 1 -> data[rng.nextInt(data.length)] = (byte) rng.nextInt(256);
+            case 2 -> {
+                if(data.length >= limit) break;
+                int at = rng.nextInt(data.length + 1);
+                byte[] grown = new byte[data.length + 1];
+                System.arraycopy(data, 0, grown, 0, at);
+                grown[at] = (byte) rng.nextInt(256);
+                System.arraycopy(data, at, grown, at + 1, data.length - at);
+                data = grown;
+            }
+            default -> {
+                int at = rng.nextInt(data.length);
+                byte[] shrunk = new byte[data.length - 1];
+                System.arraycopy(data, 0, shrunk, 0, at);
+                System.arraycopy(data, at + 1, shrunk, at, data.length - at - 1);
+                data = shrunk;
+            }
+        }
+        return data;
+    }
+
+    private static byte[] splice(byte[] data, byte[] other, ThreadLocalRandom rng)
+    {
+        if(other.length == 0) return data;
+        int cut = rng.nextInt(data.length + 1);
+        int from = rng.nextInt(other.length);
+        byte[] result = Arrays.copyOf(data, cut + other.length - from);
+        System.arraycopy(other, from, result, cut, other.length - from);
+        return result.length > 1024 ? Arrays.copyOf(result, 1024) : result;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if(args.length < 2)
+        {
+            System.out.println("Usage: Fuzz6502 <program.asm> <corpus dir> [seconds] [threads]");
+            System.exit(2);
+        }
+
+        Path file = Path.of(args[0]);
+        String[] source = Files.isRegularFile(file) ? Files.readAllLines(file).toArray(new String[0]) : Assemble6502.readLines(args[0]);
+        Program6502 program = Assemble6502.assembleProgram(source);
+        if(program == null) System.exit(1);
+
+        Fuzz6502 fuzz = new Fuzz6502(program, Path.of(args[1]));
+        if(args.length > 3) fuzz.threads = Integer.parseInt(args[3]);
+        int found = fuzz.run(args.length > 2 ? Long.parseLong(args[2]) : 60);
+        System.out.format("%d distinct crashes in %s\n", found, fuzz.directory.resolve("crashes"));
+    }
+}
@@ -0,0 +1,330 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+// Command-line runner without JavaFX. Assembles or loads a program, runs it
+// until BRK or a cycle budget and prints registers, memory hashes and speed.
+public class Headless6502
+{
+    // Bundled benchmark programs, see core/src/main/resources/bench.
+    public static final String[] CORPUS = { "test.asm", "bench/sieve.asm", "bench/memcpy.asm", "bench/sort.asm", "bench/math.asm" };
+
+    // Frames the capture writer may fall behind by before dropping.
+    private static final int CAPTURE_QUEUE = 256;
+
+    private static final String USAGE = """
+            Usage: Headless6502 [options] <program>...
+              <program>           .asm source (file or bundled resource), or a .bin/.prg/.hex image
+              --bench             run the bundled benchmark corpus
+              --cycles <n>        stop after n cycles (default 100000000)
+              --origin <$addr>    load address for images and entry point (default $0600)
+              --seed <n>          seed for the random byte at $FE (default 0)
+              --repeat <n>        run each program n times, report the fastest (default 1)
+              --dump <$addr:len>  print memory after the run
+              --ram-file <file>   back RAM with a shared file mapping others can watch
+              --heatmap <prefix>  write per-address access counts to <prefix>.png and .csv
+              --debug-info <file> write the address to source map and symbols of an .asm program
+              --optimize          assemble with zero page shortening, branch relaxation and peephole rules
+              --analyze           print the control flow and cycle bounds of each routine of an .asm program
+              --fast-forward      skip countdown delay loops analytically
+              --stream <target>   stream changed pixels at 60 frames per guest second to a file,
+                                  host:port or unix:<path>
+              --capture <path>    capture VRAM at 60 frames per guest second, PNG frames into
+                                  directory <path>, raw or rle frames into file <path>
+              --format <format>   capture format: png, raw or rle (default png)
+            """;
+
+    public long cycleLimit = 100_000_000L;
+    public int origin = Linker6502.DEFAULT_ORIGIN;
+    public long seed;
+    public int repeat = 1;
+    public int dumpFrom = -1;
+    public int dumpLength;
+    public Path ramFile;
+    public Path heatmap;
+    public Path debugInfo;
+    public boolean optimize;
+    public boolean analyze;
+    public boolean fastForward;
+    public String stream;
+    public Path capture;
+    public FrameCapture6502.Format captureFormat = FrameCapture6502.Format.PNG;
+
+    // Result of one run.
+    public static class Result
+    {
+        public CPU6502 cpu;
+        public long instructions;
+        public long cycles;
+        public long nanos;
+
+        public double mips()
+        {
+            return instructions * 1e3 / Math.max(nanos, 1);
+        }
+
+        public double megahertz()
+        {
+            return cycles * 1e3 / Math.max(nanos, 1);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Headless6502 runner = new Headless6502();
+        ArrayList<String> programs = new ArrayList<>();
+
+        try
+        {
+            for(int i = 0; i < args.length; i++)
+            {
+                switch(args[i])
+                {
+                    case "--bench"  -> programs.addAll(List.of(CORPUS));
+                    case "--cycles" -> runner.cycleLimit = Long.parseLong(args[++i]);
+                    case "--origin" -> runner.origin = parseAddress(args[++i]);
+                    case "--seed"   -> runner.seed = Long.parseLong(args[++i]);
+                    case "--repeat" -> runner.repeat = Math.max(1, Integer.parseInt(args[++i]));
+                    case "--ram-file" -> runner.ramFile = Path.of(args[++i]);
+                    case "--heatmap"  -> runner.heatmap = Path.of(args[++i]);
+                    case "--debug-info" -> runner.debugInfo = Path.of(args[++i]);
+                    case "--optimize" -> runner.optimize = true;
+                    case "--analyze" -> runner.analyze = true;
+                    case "--fast-forward" -> runner.fastForward = true;
+                    case "--stream" -> runner.stream = args[++i];
+                    case "--capture" -> runner.capture = Path.of(args[++i]);
+                    case "--format" -> runner.captureFormat = switch(args[++i].toLowerCase())
+                    {
+                        case "png" -> FrameCapture6502.Format.PNG;
+                        case "raw" -> FrameCapture6502.Format.RAW;
+                        case "rle" -> FrameCapture6502.Format.RLE;
+                        default -> throw new IllegalArgumentException("Unknown capture format " + args[i]);
+                    };
+                    case "--dump"   -> {
+                        String[] range = args[++i].split(":");
+                        runner.dumpFrom = parseAddress(range[0]);
+                        runner.dumpLength = range.length > 1 ? Integer.parseInt(range[1]) : 0x100;
+                    }
+                    default -> {
+                        if(args[i].startsWith("--")) throw new IllegalArgumentException("Unknown option " + args[i]);
+                        programs.add(args[i]);
+                    }
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.out.format("%s\n%s", e.getMessage() == null ? e.toString() : e.getMessage(), USAGE);
+            System.exit(2);
+        }
+
+        if(programs.isEmpty())
+        {
+            System.out.print(USAGE);
+            System.exit(2);
+        }
+
+        boolean failed = false;
+        long totalCycles = 0;
+        long totalNanos = 0;
+        for(String name : programs)
+        {
+            Result result = runner.run(name);
+            if(result == null)
+            {
+                failed = true;
+                continue;
+            }
+            runner.report(name, result);
+            if(result.cpu.fault != null) failed = true;
+            totalCycles += result.cycles;
+            totalNanos += result.nanos;
+        }
+
+        if(programs.size() > 1)
+            System.out.format("Total: %d cycles in %.1f ms (%.2f MHz)\n", totalCycles, totalNanos / 1e6, totalCycles * 1e3 / Math.max(totalNanos, 1));
+
+        if(failed) System.exit(1);
+    }
+
+    private static int parseAddress(String arg)
+    {
+        return arg.startsWith("$") ? Integer.parseInt(arg.substring(1), 16) : Integer.decode(arg);
+    }
+
+    // Runs name repeat times on fresh CPUs, returns the fastest run or null on error.
+    public Result run(String name)
+    {
+        Result best = null;
+        for(int i = 0; i < repeat; i++)
+        {
+            CPU6502 cpu = new CPU6502();
+            if(!load(cpu, name)) return null;
+            if(fastForward) cpu.idle = new IdleDetector6502();
+            if(ramFile != null)
+            {
+                try
+                {
+                    new MappedRAM6502(ramFile).attach(cpu);
+                }
+                catch (IOException e)
+                {
+                    System.out.format("Could not map RAM file -> %s\n >> %s\n", ramFile, e.toString());
+                    return null;
+                }
+            }
+
+            Heatmap6502 counters = null;
+            if(heatmap != null)
+            {
+                counters = new Heatmap6502();
+                counters.attach(cpu);
+            }
+
+            FrameStream6502 frames = null;
+            if(stream != null)
+            {
+                try
+                {
+                    frames = FrameStream6502.open(stream, (int) (cpu.clockspeed / 60));
+                    frames.attach(cpu);
+                }
+                catch (IOException e)
+                {
+                    System.out.format("Could not open frame stream -> %s\n >> %s\n", stream, e.toString());
+                    return null;
+                }
+            }
+
+            FrameCapture6502 recorder = null;
+            if(capture != null)
+            {
+                recorder = new FrameCapture6502(capture, captureFormat, (int) (cpu.clockspeed / 60), CAPTURE_QUEUE);
+                recorder.lossless = true;
+                recorder.start();
+                cpu.capture = recorder;
+            }
+
+            Result result = run(cpu);
+            if(recorder != null)
+            {
+                cpu.capture = null;
+                try
+                {
+                    recorder.stop();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                System.out.format("capture: %d frames, %d dropped, %d written\n", recorder.captured, recorder.dropped, recorder.written);
+            }
+            if(frames != null)
+            {
+                frames.detach();
+                System.out.format("stream: %d frames, %d keyframes, %d deltas, %d bytes\n", frames.frames, frames.keyframes, frames.deltas, frames.bytes);
+            }
+            if(counters != null)
+            {
+                counters.detach();
+                try
+                {
+                    counters.snapshot().export(heatmap);
+                }
+                catch (IOException e)
+                {
+                    System.out.format("Could not write heatmap -> %s\n >> %s\n", heatmap, e.toString());
+                }
+            }
+            if(best == null || result.nanos < best.nanos) best = result;
+        }
+        return best;
+    }
+
+    protected boolean load(CPU6502 cpu, String name)
+    {
+        Path file = Path.of(name);
+        String lower = name.toLowerCase();
+        try
+        {
+            if(lower.endsWith(".asm") || lower.endsWith(".6502"))
+            {
+                String[] source = Files.isRegularFile(file)
+                        ? Files.readAllLines(file).toArray(new String[0])
+                        : Assemble6502.readLines(name);
+
+                Program6502 program = Assemble6502.assembleProgram(source, optimize);
+                if(program == null) return false;
+                if(debugInfo != null) DebugInfo6502.of(program, file.getFileName().toString()).write(debugInfo);
+                if(analyze) new Analyze6502(program).report(System.out);
+                cpu.importRAM(program);
+                cpu.registers.PC = (short) program.origin;
+            }
+            else
+            {
+                cpu.registers.PC = (short) Loader6502.load(cpu, file, origin);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.format("Could not load program -> %s\n >> %s\n", name, e.toString());
+            return false;
+        }
+        return true;
+    }
+
+    // Runs until BRK, a fault or the cycle budget, $FE gets a seeded random byte per instruction.
+    public Result run(CPU6502 cpu)
+    {
+        Random rng = new Random(seed);
+        Result result = new Result();
+        result.cpu = cpu;
+
+        long instructions = 0;
+        long cycles = 0;
+        long start = System.nanoTime();
+        cpu.fault = null;
+        cpu.halt = false;
+        while(!cpu.halt && cycles < cycleLimit)
+        {
+            cpu.writeRAM((short) 0x00FE, rng.nextInt() & 0xFF);
+            cpu.execute();
+            cycles += cpu.waitCycles;
+            instructions++;
+        }
+        result.nanos = System.nanoTime() - start;
+        result.instructions = instructions;
+        result.cycles = cycles;
+        return result;
+    }
+
+    public void report(String name, Result result)
+    {
+        CPU6502 cpu = result.cpu;
+        System.out.format("%s: %d instructions, %d cycles in %.1f ms (%.2f MIPS, %.2f MHz) %s\n",
+                name, result.instructions, result.cycles, result.nanos / 1e6, result.mips(), result.megahertz(),
+                !cpu.halt ? "[cycle limit]" : cpu.fault != null ? "[" + cpu.fault + "]" : "[BRK]");
+        System.out.print(cpu.getCPUInfo());
+
+        byte[] ram = new byte[CPU6502.MEMSIZE];
+        cpu.exportRAM(0, ram, 0, ram.length);
+        System.out.format("crc32 ram=%08x zp=%08x stack=%08x vram=%08x\n",
+                crc(ram, 0, CPU6502.MEMSIZE), crc(ram, 0x0000, 0x100), crc(ram, 0x0100, 0x100), crc(ram, 0x0200, 0x400));
+
+        if(dumpFrom >= 0) cpu.printRAM(dumpFrom, dumpLength);
+        System.out.println();
+    }
+
+    private static long crc(byte[] data, int from, int length)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data, from, length);
+        return crc.getValue();
+    }
+}
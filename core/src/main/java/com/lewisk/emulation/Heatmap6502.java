@@ -0,0 +1,162 @@
+package com.lewisk.emulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Counts reads and writes per address. Attaching puts it in front of every
+// page through CPU6502, it forwards to whatever the page is mapped to at the
+// time, so pages mapped while attached are counted too. A CPU without a
+// heatmap runs exactly the same access path as before.
+// Reads include instruction fetches, host bulk imports and exports are
+// not counted.
+public class Heatmap6502 implements MemoryHandler6502
+{
+    private CPU6502 cpu;
+    private byte[] ram;
+    private MemoryHandler6502[] mappings;
+
+    // Swapped by snapshot() from other threads while the CPU counts.
+    protected volatile int[] reads = new int[CPU6502.MEMSIZE];
+    protected volatile int[] writes = new int[CPU6502.MEMSIZE];
+
+    // Counters taken by snapshot().
+    public static class Snapshot
+    {
+        public final int[] reads;
+        public final int[] writes;
+
+        protected Snapshot(int[] reads, int[] writes)
+        {
+            this.reads = reads;
+            this.writes = writes;
+        }
+
+        public long pageReads(int page)
+        {
+            return sum(reads, page);
+        }
+
+        public long pageWrites(int page)
+        {
+            return sum(writes, page);
+        }
+
+        private static long sum(int[] counts, int page)
+        {
+            long total = 0;
+            for(int i = page << 8; i < (page + 1) << 8; i++) total += counts[i];
+            return total;
+        }
+
+        // 256x256 image, one pixel per address (x = low byte, y = high byte).
+        // Writes are red, reads green, on a log scale.
+        public byte[] toPNG() throws IOException
+        {
+            double readScale = scale(reads);
+            double writeScale = scale(writes);
+            int[] rgb = new int[CPU6502.MEMSIZE];
+            for(int i = 0; i < rgb.length; i++)
+            {
+                int red = (int) (Math.log1p(writes[i]) * writeScale);
+                int green = (int) (Math.log1p(reads[i]) * readScale);
+                rgb[i] = (red << 16) | (green << 8);
+            }
+            return FrameCapture6502.encodePNG(256, 256, rgb);
+        }
+
+        private static double scale(int[] counts)
+        {
+            int max = 0;
+            for(int count : counts) max = Math.max(max, count);
+            return max == 0 ? 0 : 255 / Math.log1p(max);
+        }
+
+        // "address,reads,writes" for every touched address.
+        public void writeCSV(Path file) throws IOException
+        {
+            try(BufferedWriter out = Files.newBufferedWriter(file))
+            {
+                out.write("address,reads,writes\n");
+                for(int i = 0; i < reads.length; i++)
+                {
+                    if(reads[i] == 0 && writes[i] == 0) continue;
+                    out.write(String.format("$%04x,%d,%d\n", i, reads[i], writes[i]));
+                }
+            }
+        }
+
+        // Writes <prefix>.png and <prefix>.csv.
+        public void export(Path prefix) throws IOException
+        {
+            Files.write(Path.of(prefix + ".png"), toPNG());
+            writeCSV(Path.of(prefix + ".csv"));
+        }
+    }
+
+    public void attach(CPU6502 cpu)
+    {
+        this.cpu = cpu;
+        ram = cpu.getRAM();
+        mappings = cpu.mappings;
+        cpu.setHeatmap(this);
+    }
+
+    // Pages go back to their current mappings, counters are kept.
+    public void detach()
+    {
+        if(cpu == null) return;
+        if(cpu.heatmap == this) cpu.setHeatmap(null);
+        cpu = null;
+    }
+
+    // Hands over the counters so far and starts counting from zero.
+    // Safe while the CPU runs on another thread, but the access in flight
+    // during the swap can still count into the returned snapshot, and its
+    // counts are only guaranteed visible once the CPU has passed a post().
+    // Take it while halted, or from a cpu.post() task, for exact counts.
+    public Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot(reads, writes);
+        reads = new int[CPU6502.MEMSIZE];
+        writes = new int[CPU6502.MEMSIZE];
+        return snapshot;
+    }
+
+    @Override
+    public byte read(int address)
+    {
+        reads[address]++;
+        MemoryHandler6502 handler = mappings[address >> 8];
+        return handler != null ? handler.read(address) : ram[address];
+    }
+
+    // Not counted, host reads are not guest traffic.
+    @Override
+    public byte peek(int address)
+    {
+        MemoryHandler6502 handler = mappings[address >> 8];
+        return handler != null ? handler.peek(address) : ram[address];
+    }
+
+    @Override
+    public boolean poke(int address, int value)
+    {
+        MemoryHandler6502 handler = mappings[address >> 8];
+        if(handler != null) return handler.poke(address, value);
+        ram[address] = (byte) value;
+        return true;
+    }
+
+    @Override
+    public void write(int address, int value)
+    {
+        writes[address]++;
+        MemoryHandler6502 handler = mappings[address >> 8];
+        if(handler != null)
+            handler.write(address, value);
+        else
+            ram[address] = (byte) value;
+    }
+}
@@ -0,0 +1,200 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+
+// Watches an assembly source file and patches changed bytes into a CPU6502
+// without touching registers or the rest of memory. Edits that keep every
+// label address are re-encoded line by line against the existing symbol
+// table, anything else is re-assembled in full.
+public class HotReload6502 implements Runnable
+{
+    private final CPU6502 cpu;
+    private final Path source;
+    private String[] lines;
+    private Program6502 program;
+    private Thread watcher;
+
+    // Statistics
+    public int incremental;
+    public int relinked;
+
+    public HotReload6502(CPU6502 cpu, Path source)
+    {
+        this.cpu = cpu;
+        this.source = source.toAbsolutePath();
+    }
+
+    public Program6502 getProgram()
+    {
+        return program;
+    }
+
+    // Assembles the source and loads it whole, false on error.
+    public boolean load() throws IOException
+    {
+        String[] next = Files.readAllLines(source).toArray(new String[0]);
+        Program6502 assembled = Assemble6502.assembleProgram(next);
+        if(assembled == null) return false;
+
+        lines = next;
+        program = assembled;
+        cpu.post(() -> cpu.importRAM(assembled));
+        return true;
+    }
+
+    // Re-assembles the source and patches the differences into the CPU,
+    // the running program is kept on error.
+    public synchronized boolean reload() throws IOException
+    {
+        if(program == null) return load();
+
+        String[] next = Files.readAllLines(source).toArray(new String[0]);
+        Program6502 updated = reassemble(next);
+        if(updated == null) return false;
+
+        patch(program, updated);
+        lines = next;
+        program = updated;
+        return true;
+    }
+
+    protected Program6502 reassemble(String[] next)
+    {
+        // Changed region is what remains after the common prefix and suffix.
+        int min = Math.min(lines.length, next.length);
+        int prefix = 0;
+        while(prefix < min && lines[prefix].equals(next[prefix])) prefix++;
+        int suffix = 0;
+        while(suffix < min - prefix && lines[lines.length - 1 - suffix].equals(next[next.length - 1 - suffix])) suffix++;
+
+        int oldEnd = lines.length - suffix;
+        int newEnd = next.length - suffix;
+        if(program.lineStart != null && onlyInstructions(lines, prefix, oldEnd) && onlyInstructions(next, prefix, newEnd))
+        {
+            int start = program.lineStart[prefix];
+            int end = program.lineStart[oldEnd];
+
+            byte[][] encoded = new byte[newEnd - prefix][];
+            int size = 0;
+            for(int i = prefix; i < newEnd; i++)
+            {
+                byte[] code = Assemble6502.assembleLine(next[i], i + 1, program.origin + start + size, program.defines, program.symbols);
+                if(code == null) return null;
+                encoded[i - prefix] = code;
+                size += code.length;
+            }
+
+            // Labels after the region keep their addresses, splice it in.
+            if(size == end - start)
+            {
+                byte[] bytes = program.bytes.clone();
+                int[] lineStart = new int[next.length + 1];
+                System.arraycopy(program.lineStart, 0, lineStart, 0, prefix);
+                int offset = start;
+                for(int i = prefix; i < newEnd; i++)
+                {
+                    byte[] code = encoded[i - prefix];
+                    lineStart[i] = offset;
+                    System.arraycopy(code, 0, bytes, offset, code.length);
+                    offset += code.length;
+                }
+                System.arraycopy(program.lineStart, oldEnd, lineStart, newEnd, suffix + 1);
+
+                incremental++;
+                return new Program6502(program.origin, bytes, program.symbols, program.defines, lineStart);
+            }
+        }
+
+        relinked++;
+        return Assemble6502.assembleProgram(next);
+    }
+
+    private static boolean onlyInstructions(String[] src, int from, int to)
+    {
+        for(int i = from; i < to; i++)
+        {
+            String line = src[i];
+            int commentIndex = line.indexOf(';');
+            if(commentIndex >= 0) line = line.substring(0, commentIndex);
+            if(Assemble6502.isDirective(line.trim())) return false;
+        }
+        return true;
+    }
+
+    // Posts the changed byte runs of updated to the CPU.
+    protected void patch(Program6502 previous, Program6502 updated)
+    {
+        ArrayList<int[]> runs = new ArrayList<>();
+        byte[] bytes = updated.bytes;
+        if(previous.origin != updated.origin)
+        {
+            runs.add(new int[] { 0, bytes.length });
+        }
+        else
+        {
+            byte[] old = previous.bytes;
+            int i = 0;
+            while(i < bytes.length)
+            {
+                if(i < old.length && old[i] == bytes[i]) { i++; continue; }
+                int start = i;
+                while(i < bytes.length && (i >= old.length || old[i] != bytes[i])) i++;
+                runs.add(new int[] { start, i - start });
+            }
+        }
+        if(runs.isEmpty()) return;
+
+        cpu.post(() -> {
+            for(int[] run : runs) cpu.importRAM(updated.origin + run[0], bytes, run[0], run[1]);
+        });
+    }
+
+    public void start()
+    {
+        watcher = new Thread(this, "HotReload6502");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public void stop()
+    {
+        if(watcher != null) watcher.interrupt();
+        watcher = null;
+    }
+
+    @Override
+    public void run()
+    {
+        try(WatchService watch = source.getFileSystem().newWatchService())
+        {
+            source.getParent().register(watch, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            while(!Thread.interrupted())
+            {
+                WatchKey key = watch.take();
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents())
+                {
+                    if(source.getFileName().equals(event.context())) changed = true;
+                }
+                key.reset();
+                if(!changed) continue;
+
+                // Let the editor finish writing.
+                Thread.sleep(50);
+                int before = incremental;
+                if(reload())
+                    System.out.format("Reloaded %s (%s)\n", source.getFileName(), incremental != before ? "incremental" : "relinked");
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            // Stopped
+        }
+        catch (IOException e)
+        {
+            System.out.format("Hot reload stopped watching %s\n >> %s\n", source, e.toString());
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.lewisk.emulation;
+
+import java.util.Arrays;
+import java.util.Set;
+
+// Spots tight backward loops that only burn time and lets the CPU skip them.
+//
+// Countdown: NOP* then DEX/DEY/INX/INY then BNE back. The remaining
+// iterations follow from the counter, so the loop is finished in one step
+// and its cycles are added at once.
+//
+// Polling: a loop that only reads memory and registers (no stores, stack or
+// jumps). Once two passes end with the same registers and read the same
+// values it would spin forever, the CPU is told to wait for one of the read
+// addresses to change. Loops reading $FE (random) never count as idle.
+//
+// Loops are decoded once per branch address. A write through this CPU
+// (writeRAM or pokeRAM, e.g. self-modifying code or a trap patch) into a
+// decoded loop drops the cache. Code changed behind the CPU's back, such as
+// shared memory written by another core, needs invalidate().
+public class IdleDetector6502
+{
+    public static final long PARK_NANOS = 1_000_000;
+
+    private static final int MAX_BODY = 32;
+    private static final int BRANCH_TAKEN_CYCLES = 3;
+
+    // Decoded loop, by branch address.
+    protected static class Loop
+    {
+        int counter;     // Counter opcode of a countdown, 0 for polling loops
+        int bodyCycles;
+        int[] reads;     // Addresses a polling loop reads
+    }
+
+    private static final Loop NONE = new Loop();
+    private static final Set<String> POLL_SAFE = Set.of(
+            "LDA", "LDX", "LDY", "CMP", "CPX", "CPY", "BIT", "AND", "ORA", "EOR", "ADC", "SBC",
+            "NOP", "CLC", "SEC", "CLV", "CLD", "SED", "TAX", "TAY", "TXA", "TYA", "INX", "INY", "DEX", "DEY");
+
+    private final Loop[] loops = new Loop[CPU6502.MEMSIZE];
+    // Addresses of decoded loops (body and branch), one bit each.
+    private final long[] code = new long[CPU6502.MEMSIZE / 64];
+
+    // Last taken pass of a polling loop.
+    private int lastBranch = -1;
+    private final int[] lastState = new int[4 + MAX_BODY];
+
+    // Statistics
+    public long skippedCycles;
+    public int countdowns;
+    public int idleWaits;
+
+    public void invalidate()
+    {
+        Arrays.fill(loops, null);
+        Arrays.fill(code, 0);
+        lastBranch = -1;
+    }
+
+    // Called before the branch at pc executes, returns cycles skipped.
+    protected int branch(CPU6502 cpu, int pc, int opcode)
+    {
+        int offset = cpu.peekRAM((short) (pc + 1));
+        if(offset >= 0 || !taken(cpu.cpuFlags, opcode)) return 0;
+
+        Loop loop = loops[pc];
+        if(loop == null)
+        {
+            int target = (pc + 2 + offset) & 0xFFFF;
+            loop = loops[pc] = decode(cpu, pc, target, opcode);
+            mark(pc - target > MAX_BODY || target > pc ? pc : target, pc + 2);
+        }
+        if(loop == NONE) return 0;
+
+        if(loop.counter != 0) return countdown(cpu, loop);
+
+        poll(cpu, pc, loop);
+        return 0;
+    }
+
+    // Called for every write through the CPU.
+    protected void written(int address)
+    {
+        if((code[address >> 6] & (1L << address)) != 0) invalidate();
+    }
+
+    private void mark(int from, int to)
+    {
+        for(int address = from; address < to; address++)
+        {
+            int a = address & 0xFFFF;
+            code[a >> 6] |= 1L << a;
+        }
+    }
+
+    // Branch opcodes: bits 7-6 pick N, V, C or Z, bit 5 is the value that branches.
+    private static boolean taken(byte flags, int opcode)
+    {
+        int mask = switch(opcode >> 6)
+        {
+            case 0 -> 0x80;
+            case 1 -> 0x40;
+            case 2 -> 0x01;
+            default -> 0x02;
+        };
+        return ((flags & mask) != 0) == ((opcode & 0x20) != 0);
+    }
+
+    private int countdown(CPU6502 cpu, Loop loop)
+    {
+        var r = cpu.registers;
+        int value = switch(loop.counter)
+        {
+            case 0xCA, 0xE8 -> r.X & 0xFF;
+            default -> r.Y & 0xFF;
+        };
+        boolean down = loop.counter == 0xCA || loop.counter == 0x88;
+        int iterations = down ? value : (0x100 - value) & 0xFF;
+
+        // Counter ends at zero: Z set, N clear, the BNE then falls through.
+        if(loop.counter == 0xCA || loop.counter == 0xE8) r.X = 0; else r.Y = 0;
+        cpu.cpuFlags = (byte) ((cpu.cpuFlags & ~0x80) | 0x02);
+
+        int cycles = iterations * (loop.bodyCycles + BRANCH_TAKEN_CYCLES);
+        skippedCycles += cycles;
+        countdowns++;
+        return cycles;
+    }
+
+    private void poll(CPU6502 cpu, int pc, Loop loop)
+    {
+        var r = cpu.registers;
+        boolean same = lastBranch == pc
+                && lastState[0] == r.A && lastState[1] == r.X && lastState[2] == r.Y && lastState[3] == cpu.cpuFlags;
+        lastState[0] = r.A;
+        lastState[1] = r.X;
+        lastState[2] = r.Y;
+        lastState[3] = cpu.cpuFlags;
+        for(int i = 0; i < loop.reads.length; i++)
+        {
+            int value = cpu.peekRAM((short) loop.reads[i]);
+            if(lastState[4 + i] != value) same = false;
+            lastState[4 + i] = value;
+        }
+        lastBranch = pc;
+
+        if(same)
+        {
+            cpu.waitingForInput = true;
+            idleWaits++;
+        }
+    }
+
+    // True while the polling loop the CPU is waiting in would still read the same values.
+    protected boolean unchanged(CPU6502 cpu)
+    {
+        if(lastBranch < 0) return false;
+        int[] reads = loops[lastBranch].reads;
+        for(int i = 0; i < reads.length; i++)
+        {
+            if(cpu.peekRAM((short) reads[i]) != lastState[4 + i]) return false;
+        }
+        return true;
+    }
+
+    private static Loop decode(CPU6502 cpu, int branch, int target, int opcode)
+    {
+        if(branch - target > MAX_BODY || target > branch) return NONE;
+
+        int[] body = new int[MAX_BODY];
+        int count = 0;
+        int address = target;
+        while(address < branch)
+        {
+            body[count] = cpu.peekRAM((short) address) & 0xFF;
+            address += Opcode6502.lengths[body[count++]];
+        }
+        if(count == 0 || address != branch) return NONE;
+
+        Loop loop = countdown(body, count, opcode);
+        if(loop == null) loop = polling(cpu, body, count, target);
+        return loop == null ? NONE : loop;
+    }
+
+    private static Loop countdown(int[] body, int count, int opcode)
+    {
+        int counter = body[count - 1];
+        if(opcode != 0xD0 || (counter != 0xCA && counter != 0x88 && counter != 0xE8 && counter != 0xC8)) return null;
+
+        Loop loop = new Loop();
+        loop.counter = counter;
+        loop.bodyCycles = Opcode6502.cycles[counter];
+        for(int i = 0; i < count - 1; i++)
+        {
+            if(body[i] != 0xEA) return null;
+            loop.bodyCycles += Opcode6502.cycles[0xEA];
+        }
+        return loop;
+    }
+
+    private static Loop polling(CPU6502 cpu, int[] body, int count, int target)
+    {
+        int[] reads = new int[count];
+        int readCount = 0;
+        int address = target;
+        for(int i = 0; i < count; i++)
+        {
+            int op = body[i];
+            String name = Opcode6502.mnemonics[op];
+            if(name == null || !POLL_SAFE.contains(name)) return null;
+
+            int mode = Opcode6502.modes[op];
+            if(mode == Opcode6502.ZP || mode == Opcode6502.ABS)
+            {
+                int low = cpu.peekRAM((short) (address + 1)) & 0xFF;
+                int high = mode == Opcode6502.ABS ? cpu.peekRAM((short) (address + 2)) & 0xFF : 0;
+                int read = (high << 8) | low;
+
+                // Random changes every instruction, side effecting I/O can't be re-read.
+                MemoryHandler6502 handler = cpu.mappings[read >> 8];
+                if(read == 0x00FE || (handler != null && !handler.isPlainMemory())) return null;
+                reads[readCount++] = read;
+            }
+            else if(mode != Opcode6502.IMP && mode != Opcode6502.ACC && mode != Opcode6502.IMM)
+            {
+                return null;
+            }
+            address += Opcode6502.lengths[op];
+        }
+
+        Loop loop = new Loop();
+        loop.reads = Arrays.copyOf(reads, readCount);
+        return loop;
+    }
+}
@@ -0,0 +1,192 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Places Object6502 segments in memory and resolves their symbols.
+// A Linker6502 instance keeps the objects it built, so a rebuild only
+// re-assembles files that changed, in parallel.
+public class Linker6502
+{
+    public static final int DEFAULT_ORIGIN = 0x0600;
+
+    protected static class CachedObject
+    {
+        FileTime modified;
+        long size;
+        Object6502 object;
+
+        protected CachedObject(FileTime modified, long size, Object6502 object)
+        {
+            this.modified = modified;
+            this.size = size;
+            this.object = object;
+        }
+    }
+
+    private final Map<Path, CachedObject> objects = new ConcurrentHashMap<>();
+
+    // Files re-assembled by the last build.
+    public int assembled;
+
+    // Assembles changed files in parallel and links them in the given order.
+    public Program6502 build(List<Path> files) throws IOException
+    {
+        assembled = 0;
+        List<Object6502> linked;
+        try
+        {
+            linked = files.parallelStream().map(this::getObject).collect(Collectors.toList());
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        if(linked.contains(null)) return null;
+        return link(linked);
+    }
+
+    protected Object6502 getObject(Path file)
+    {
+        try
+        {
+            Path key = file.toAbsolutePath();
+            FileTime modified = Files.getLastModifiedTime(key);
+            long size = Files.size(key);
+
+            CachedObject cached = objects.get(key);
+            if(cached != null && cached.modified.equals(modified) && cached.size == size) return cached.object;
+
+            String name = file.getFileName().toString();
+            Object6502 object = Assemble6502.assembleObject(name, Files.readAllLines(key).toArray(new String[0]));
+            synchronized(this) { assembled++; }
+            if(object != null) objects.put(key, new CachedObject(modified, size, object));
+            return object;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Debug info for a program built from files by the last build().
+    public DebugInfo6502 debugInfo(List<Path> files, Program6502 program)
+    {
+        List<Object6502> linked = new ArrayList<>();
+        for(Path file : files)
+        {
+            CachedObject cached = objects.get(file.toAbsolutePath());
+            if(cached == null) return null;
+            linked.add(cached.object);
+        }
+        return DebugInfo6502.of(linked, program);
+    }
+
+    // Objects are placed one after another starting at the first object's
+    // origin, an object with its own origin is placed there instead.
+    // Returns the address of each object, null after printing an error.
+    protected static int[] place(List<Object6502> objects)
+    {
+        int[] base = new int[objects.size()];
+        int address = objects.get(0).origin >= 0 ? objects.get(0).origin : DEFAULT_ORIGIN;
+        int origin = address;
+        for(int i = 0; i < objects.size(); i++)
+        {
+            Object6502 object = objects.get(i);
+            if(object.origin >= 0)
+            {
+                if(object.origin < address)
+                {
+                    System.out.format("Segment overlaps previous segment -> %s @%04x\n", object.name, object.origin);
+                    return null;
+                }
+                address = object.origin;
+            }
+            base[i] = address;
+            address += object.bytes.length;
+        }
+        if(address > CPU6502.MEMSIZE)
+        {
+            System.out.format("Program does not fit in memory -> %04x bytes\n", address - origin);
+            return null;
+        }
+        return base;
+    }
+
+    public static Program6502 link(List<Object6502> objects)
+    {
+        if(objects.isEmpty()) return null;
+
+        // Place segments
+        int[] base = place(objects);
+        if(base == null) return null;
+        int origin = base[0];
+        Object6502 last = objects.get(objects.size() - 1);
+        int address = base[base.length - 1] + last.bytes.length;
+
+        // Exported symbols
+        boolean single = objects.size() == 1;
+        Map<String, Integer> globals = new HashMap<>();
+        Map<String, Integer> symbols = new HashMap<>();
+        for(int i = 0; i < objects.size(); i++)
+        {
+            Object6502 object = objects.get(i);
+            for(Map.Entry<String, Integer> e : object.labels.entrySet())
+            {
+                int addr = base[i] + e.getValue();
+                boolean exported = single || object.exports.contains(e.getKey());
+                if(exported && globals.put(e.getKey(), addr) != null)
+                {
+                    System.out.format("Duplicate symbol -> %s (%s)\n", e.getKey(), object.name);
+                    return null;
+                }
+                symbols.put(exported ? e.getKey() : stripExtension(object.name) + "." + e.getKey(), addr);
+            }
+        }
+
+        // Copy segments and apply relocations.
+        byte[] image = new byte[address - origin];
+        for(int i = 0; i < objects.size(); i++)
+        {
+            Object6502 object = objects.get(i);
+            int start = base[i] - origin;
+            System.arraycopy(object.bytes, 0, image, start, object.bytes.length);
+
+            for(Assemble6502.Fixup relocation : object.relocations)
+            {
+                if(relocation.symbol == null)
+                {
+                    int at = start + relocation.offset;
+                    int value = ((image[at] & 0xFF) | ((image[at + 1] & 0xFF) << 8)) + base[i];
+                    image[at] = (byte) value;
+                    image[at + 1] = (byte) (value >> 8);
+                    continue;
+                }
+
+                // Imports are patched against the whole image.
+                var imported = new Assemble6502.Fixup(start + relocation.offset, relocation.symbol, relocation.relative, relocation.line);
+                if(!imported.apply(image, origin, globals))
+                {
+                    if(!single) System.out.format(" >> in %s\n", object.name);
+                    return null;
+                }
+            }
+        }
+
+        Object6502 first = objects.get(0);
+        if(single) return new Program6502(origin, image, symbols, first.defines, first.lineStart);
+        return new Program6502(origin, image, symbols);
+    }
+
+    protected static String stripExtension(String name)
+    {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
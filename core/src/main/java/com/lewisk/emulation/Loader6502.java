@@ -0,0 +1,120 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Loads binary program images from the filesystem straight into RAM.
+// Files are memory mapped and bulk copied, never parsed as text lines.
+public class Loader6502
+{
+    // Picks the format from the extension: .prg, .hex/.ihx, anything else is raw.
+    // Returns the load address (or the start address record for Intel HEX).
+    public static int load(CPU6502 cpu, Path file, int origin) throws IOException
+    {
+        String name = file.getFileName().toString().toLowerCase();
+        if(name.endsWith(".prg")) return loadPRG(cpu, file);
+        if(name.endsWith(".hex") || name.endsWith(".ihx")) return loadIntelHex(cpu, file, origin);
+        return loadBinary(cpu, file, origin);
+    }
+
+    protected static MappedByteBuffer map(Path file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // Raw image loaded at origin.
+    public static int loadBinary(CPU6502 cpu, Path file, int origin) throws IOException
+    {
+        MappedByteBuffer data = map(file);
+        if(origin < 0 || origin + data.remaining() > CPU6502.MEMSIZE)
+            throw new IOException(String.format("%s does not fit in memory at $%04x", file, origin));
+
+        cpu.importRAM(origin, data);
+        return origin;
+    }
+
+    // Commodore style image, the first two bytes are the little-endian load address.
+    public static int loadPRG(CPU6502 cpu, Path file) throws IOException
+    {
+        MappedByteBuffer data = map(file);
+        if(data.remaining() < 2) throw new IOException(file + " has no load address");
+
+        int origin = (data.get() & 0xFF) | ((data.get() & 0xFF) << 8);
+        if(origin + data.remaining() > CPU6502.MEMSIZE)
+            throw new IOException(String.format("%s does not fit in memory at $%04x", file, origin));
+
+        cpu.importRAM(origin, data);
+        return origin;
+    }
+
+    // Intel HEX records, returns the start address record or defaultStart.
+    public static int loadIntelHex(CPU6502 cpu, Path file, int defaultStart) throws IOException
+    {
+        MappedByteBuffer data = map(file);
+        byte[] record = new byte[255];
+        int start = defaultStart;
+        int line = 0;
+
+        while(data.hasRemaining())
+        {
+            byte c = data.get();
+            if(c != ':') continue;
+            line++;
+
+            int length = readHexByte(data, file, line);
+            int address = (readHexByte(data, file, line) << 8) | readHexByte(data, file, line);
+            int type = readHexByte(data, file, line);
+            int sum = length + (address >> 8) + address + type;
+            for(int i = 0; i < length; i++)
+            {
+                record[i] = (byte) readHexByte(data, file, line);
+                sum += record[i];
+            }
+            sum += readHexByte(data, file, line);
+            if((sum & 0xFF) != 0) throw new IOException(String.format("%s: bad checksum in record %d", file, line));
+
+            // Extended address records carry two bytes, start address records four.
+            int required = switch(type)
+            {
+                case 0x02, 0x04 -> 2;
+                case 0x03, 0x05 -> 4;
+                default -> length;
+            };
+            if(length != required)
+                throw new IOException(String.format("%s: record %d of type %02x has %d bytes, expected %d", file, line, type, length, required));
+
+            switch(type)
+            {
+                case 0x00 -> {
+                    if(address + length > CPU6502.MEMSIZE)
+                        throw new IOException(String.format("%s: record %d does not fit in memory", file, line));
+                    cpu.importRAM(address, record, 0, length);
+                }
+                case 0x01 -> { return start; }
+                case 0x02, 0x04 -> {
+                    // Segment / linear base, only the first 64K is addressable.
+                    if((record[0] | record[1]) != 0)
+                        throw new IOException(String.format("%s: record %d addresses past 64K", file, line));
+                }
+                case 0x03, 0x05 -> start = ((record[2] & 0xFF) << 8) | (record[3] & 0xFF);
+                default -> throw new IOException(String.format("%s: unknown record type %02x", file, type));
+            }
+        }
+        return start;
+    }
+
+    private static int readHexByte(MappedByteBuffer data, Path file, int line) throws IOException
+    {
+        if(data.remaining() < 2) throw new IOException(String.format("%s: record %d is truncated", file, line));
+        int high = Character.digit(data.get(), 16);
+        int low = Character.digit(data.get(), 16);
+        if(high < 0 || low < 0) throw new IOException(String.format("%s: bad hex digit in record %d", file, line));
+        return (high << 4) | low;
+    }
+}
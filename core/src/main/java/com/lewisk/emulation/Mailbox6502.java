@@ -0,0 +1,45 @@
+package com.lewisk.emulation;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lock-free byte queue between cores, mapped on one page:
+//   page+0  write sends a byte, read receives one ($00 if empty)
+//   page+1  read gives the number of bytes waiting (saturates at $FF)
+// Peeking page+0 shows the next byte without receiving it.
+public class Mailbox6502 implements MemoryHandler6502
+{
+    private final ConcurrentLinkedQueue<Byte> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    @Override
+    public byte read(int address)
+    {
+        int register = address & 0xFF;
+        if(register == 0x00)
+        {
+            Byte value = queue.poll();
+            if(value == null) return 0;
+            waiting.decrementAndGet();
+            return value;
+        }
+        if(register == 0x01) return (byte) Math.max(0, Math.min(waiting.get(), 0xFF));
+        return 0;
+    }
+
+    @Override
+    public byte peek(int address)
+    {
+        if((address & 0xFF) != 0x00) return read(address);
+        Byte value = queue.peek();
+        return value == null ? 0 : value;
+    }
+
+    @Override
+    public void write(int address, int value)
+    {
+        if((address & 0xFF) != 0x00) return;
+        queue.add((byte) value);
+        waiting.incrementAndGet();
+    }
+}
@@ -0,0 +1,87 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Guest RAM backed by a shared file mapping (by default in /dev/shm).
+// Other processes can map the same file to watch memory live without
+// touching the emulator thread, and the contents outlive a crash.
+// The file is the plain 64K address space, offset = address.
+public class MappedRAM6502 implements MemoryHandler6502
+{
+    public final Path file;
+    protected final MappedByteBuffer memory;
+
+    public MappedRAM6502(Path file) throws IOException
+    {
+        this.file = file;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, CPU6502.MEMSIZE);
+        }
+    }
+
+    // /dev/shm when available, otherwise the temporary directory.
+    public static Path defaultFile(String name)
+    {
+        Path shm = Path.of("/dev/shm");
+        return (Files.isDirectory(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"))).resolve(name);
+    }
+
+    // Read-only view of a RAM file, for viewers and post-mortem analysis.
+    public static MappedByteBuffer observe(Path file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), CPU6502.MEMSIZE));
+        }
+    }
+
+    // Takes over every page cpu still keeps in plain RAM, copying its contents.
+    // Pages already mapped (shared memory, mappers) keep their handler.
+    public void attach(CPU6502 cpu)
+    {
+        byte[] ram = cpu.getRAM();
+        for(int page = 0; page < CPU6502.MEMSIZE >> 8; page++)
+        {
+            if(cpu.mappings[page] != null) continue;
+            memory.put(page << 8, ram, page << 8, 0x100);
+            cpu.map(page, 1, this);
+        }
+    }
+
+    // Flushes to the backing device, only needed for files outside of tmpfs.
+    public void force()
+    {
+        memory.force();
+    }
+
+    @Override
+    public boolean isPlainMemory()
+    {
+        return true;
+    }
+
+    @Override
+    public byte read(int address)
+    {
+        return memory.get(address);
+    }
+
+    @Override
+    public void write(int address, int value)
+    {
+        memory.put(address, (byte) value);
+    }
+
+    @Override
+    public boolean poke(int address, int value)
+    {
+        memory.put(address, (byte) value);
+        return true;
+    }
+}
@@ -0,0 +1,138 @@
+package com.lewisk.emulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Bank switching: maps fixed size windows of the address space onto banks
+// of a larger backing store. Switching a bank only updates an offset, the
+// backing store is never copied. A file backed store is memory mapped, so
+// banks are read from disk only when touched.
+//
+// Mapper registers, one pair per window at registerPage:
+//   +2n    write selects bank (latch << 8 | value) for window n
+//   +2n+1  write latches the high byte of the next bank number
+// Reads return the selected bank of the window.
+public class Mapper6502 implements MemoryHandler6502
+{
+    public final int windowSize;
+    public final int base;
+    public final int windows;
+    public final int banks;
+
+    protected final ByteBuffer store;
+    protected final boolean writable;
+    private final int shift;
+    private final int mask;
+    private final int[] offsets;
+    private final int[] selected;
+    private final int[] latch;
+
+    // windowSize is a power of two of at least a page (e.g. 0x1000 or 0x2000),
+    // windows start at address base.
+    public Mapper6502(ByteBuffer store, int windowSize, int base, int windows)
+    {
+        if(Integer.bitCount(windowSize) != 1 || windowSize < 0x100 || (base & (windowSize - 1)) != 0 || base + windowSize * windows > CPU6502.MEMSIZE)
+            throw new IllegalArgumentException(String.format("Invalid mapper windows: %d x $%04x at $%04x", windows, windowSize, base));
+        if(store.capacity() < windowSize)
+            throw new IllegalArgumentException("Backing store is smaller than one bank");
+
+        this.store = store;
+        this.writable = !store.isReadOnly();
+        this.windowSize = windowSize;
+        this.base = base;
+        this.windows = windows;
+        this.banks = store.capacity() / windowSize;
+        shift = Integer.numberOfTrailingZeros(windowSize);
+        mask = windowSize - 1;
+        offsets = new int[windows];
+        selected = new int[windows];
+        latch = new int[windows];
+
+        // Power-on: window n shows bank n
+        for(int i = 0; i < windows; i++) select(i, i);
+    }
+
+    // Zero filled expansion RAM of size bytes.
+    public Mapper6502(int size, int windowSize, int base, int windows)
+    {
+        this(ByteBuffer.allocateDirect(size), windowSize, base, windows);
+    }
+
+    // Memory mapped image, writes go back to the file when writable.
+    public static Mapper6502 open(Path file, boolean writable, int windowSize, int base, int windows) throws IOException
+    {
+        StandardOpenOption[] options = writable
+                ? new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE }
+                : new StandardOpenOption[] { StandardOpenOption.READ };
+        try(FileChannel channel = FileChannel.open(file, options))
+        {
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            return new Mapper6502(channel.map(mode, 0, channel.size()), windowSize, base, windows);
+        }
+    }
+
+    // Maps the windows into cpu, and the registers if registerPage >= 0.
+    public void attach(CPU6502 cpu, int registerPage)
+    {
+        cpu.map(base >> 8, (windowSize >> 8) * windows, this);
+        if(registerPage >= 0) cpu.map(registerPage, 1, registers);
+    }
+
+    // Banks past the end of the store wrap around.
+    public void select(int window, int bank)
+    {
+        bank %= banks;
+        selected[window] = bank;
+        offsets[window] = bank * windowSize;
+    }
+
+    public int selected(int window)
+    {
+        return selected[window];
+    }
+
+    @Override
+    public boolean isPlainMemory()
+    {
+        return true;
+    }
+
+    @Override
+    public byte read(int address)
+    {
+        return store.get(offsets[(address - base) >> shift] + (address & mask));
+    }
+
+    // ROM images ignore writes.
+    @Override
+    public void write(int address, int value)
+    {
+        if(writable) store.put(offsets[(address - base) >> shift] + (address & mask), (byte) value);
+    }
+
+    public final MemoryHandler6502 registers = new MemoryHandler6502()
+    {
+        @Override
+        public byte read(int address)
+        {
+            int window = (address & 0xFF) >> 1;
+            if(window >= windows) return 0;
+            int bank = selected[window];
+            return (byte) ((address & 1) == 0 ? bank : bank >> 8);
+        }
+
+        @Override
+        public void write(int address, int value)
+        {
+            int window = (address & 0xFF) >> 1;
+            if(window >= windows) return;
+            if((address & 1) == 0)
+                select(window, (latch[window] << 8) | (value & 0xFF));
+            else
+                latch[window] = value & 0xFF;
+        }
+    };
+}
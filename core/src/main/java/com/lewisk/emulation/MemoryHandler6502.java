@@ -0,0 +1,29 @@
+package com.lewisk.emulation;
+
+// Takes over reads and writes for pages mapped with CPU6502.map,
+// addresses are full 16-bit CPU addresses.
+public interface MemoryHandler6502
+{
+    byte read(int address);
+    void write(int address, int value);
+
+    // Read for the host (dumps, disassembly, debuggers), must not change any state.
+    default byte peek(int address)
+    {
+        return read(address);
+    }
+
+    // Write for the host (code patches) that stays at address, is seen only by
+    // this CPU and has no side effects. False if the page can't take one: I/O,
+    // memory shared with other cores or switched between banks.
+    default boolean poke(int address, int value)
+    {
+        return false;
+    }
+
+    // True if reads have no side effects and only change through writes.
+    default boolean isPlainMemory()
+    {
+        return false;
+    }
+}
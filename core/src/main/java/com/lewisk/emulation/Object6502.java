@@ -0,0 +1,40 @@
+package com.lewisk.emulation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Relocatable output of assembling one source file. Label addresses
+// are offsets from the start of bytes until placed by Linker6502.
+public class Object6502
+{
+    public final String name;
+
+    // Requested load address (.entry), -1 to let the linker place it.
+    public final int origin;
+    public final byte[] bytes;
+
+    // Label -> offset, exports are visible to other objects.
+    public final Map<String, Integer> labels;
+    public final Set<String> exports;
+
+    // Operands to patch at link time. A null symbol is a local address
+    // stored in bytes, any other symbol is imported from another object.
+    protected final List<Assemble6502.Fixup> relocations;
+
+    public final Map<String, String> defines;
+    public final int[] lineStart;
+
+    protected Object6502(String name, int origin, byte[] bytes, Map<String, Integer> labels, Set<String> exports,
+                         List<Assemble6502.Fixup> relocations, Map<String, String> defines, int[] lineStart)
+    {
+        this.name = name;
+        this.origin = origin;
+        this.bytes = bytes;
+        this.labels = labels;
+        this.exports = exports;
+        this.relocations = relocations;
+        this.defines = defines;
+        this.lineStart = lineStart;
+    }
+}
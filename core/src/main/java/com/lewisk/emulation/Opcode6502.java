@@ -5,6 +5,197 @@ import static com.lewisk.emulation.CPU6502.Flags;
 // Returns binaries to be executed on a CPU6502 for a given Instruction.
 public abstract class Opcode6502
 {
+    // Addressing modes, the first 12 are also the assembler's opcode table columns.
+    public static final int ACC = 0, IMP = 1, IMM = 2, ZP = 3, ZPX = 4, ZPY = 5,
+                            ABS = 6, ABX = 7, ABY = 8, IN = 9, INX = 10, INY = 11, REL = 12;
+    public static final String[] modeNames =
+    {
+        "ACC", "IMP", "IMM", "ZP", "ZPX", "ZPY", "ABS", "ABX", "ABY", "IN", "INX", "INY", "REL"
+    };
+    private static final int[] operandBytes = { 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 1, 1, 1 };
+
+    // Opcode, mnemonic, mode, base cycles (as returned by the handlers below).
+    private static final String[] opcodeInfo =
+    {
+        "69 ADC IMM 2",
+        "65 ADC ZP  3",
+        "75 ADC ZPX 4",
+        "6D ADC ABS 4",
+        "7D ADC ABX 4",
+        "79 ADC ABY 4",
+        "61 ADC INX 6",
+        "71 ADC INY 5",
+        "29 AND IMM 2",
+        "25 AND ZP  3",
+        "35 AND ZPX 4",
+        "2D AND ABS 4",
+        "3D AND ABX 4",
+        "39 AND ABY 4",
+        "21 AND INX 6",
+        "31 AND INY 5",
+        "0A ASL ACC 2",
+        "06 ASL ZP  5",
+        "16 ASL ZPX 6",
+        "0E ASL ABS 6",
+        "1E ASL ABX 7",
+        "90 BCC REL 2",
+        "B0 BCS REL 2",
+        "F0 BEQ REL 2",
+        "24 BIT ZP  3",
+        "2C BIT ABS 4",
+        "30 BMI REL 2",
+        "D0 BNE REL 2",
+        "10 BPL REL 2",
+        "00 BRK IMP 7",
+        "50 BVC REL 2",
+        "70 BVS REL 2",
+        "18 CLC IMP 2",
+        "D8 CLD IMP 2",
+        "58 CLI IMP 2",
+        "B8 CLV IMP 2",
+        "C9 CMP IMM 2",
+        "C5 CMP ZP  3",
+        "D5 CMP ZPX 4",
+        "CD CMP ABS 4",
+        "DD CMP ABX 4",
+        "D9 CMP ABY 4",
+        "C1 CMP INX 6",
+        "D1 CMP INY 5",
+        "E0 CPX IMM 2",
+        "E4 CPX ZP  3",
+        "EC CPX ABS 4",
+        "C0 CPY IMM 2",
+        "C4 CPY ZP  3",
+        "CC CPY ABS 4",
+        "C6 DEC ZP  5",
+        "D6 DEC ZPX 6",
+        "CE DEC ABS 6",
+        "DE DEC ABX 7",
+        "CA DEX IMP 2",
+        "88 DEY IMP 2",
+        "49 EOR IMM 2",
+        "45 EOR ZP  3",
+        "55 EOR ZPX 4",
+        "4D EOR ABS 4",
+        "5D EOR ABX 4",
+        "59 EOR ABY 4",
+        "41 EOR INX 6",
+        "51 EOR INY 5",
+        "E6 INC ZP  5",
+        "F6 INC ZPX 6",
+        "EE INC ABS 6",
+        "FE INC ABX 7",
+        "E8 INX IMP 2",
+        "C8 INY IMP 2",
+        "4C JMP ABS 3",
+        "6C JMP IN  5",
+        "20 JSR ABS 6",
+        "A9 LDA IMM 2",
+        "A5 LDA ZP  3",
+        "B5 LDA ZPX 4",
+        "AD LDA ABS 4",
+        "BD LDA ABX 4",
+        "B9 LDA ABY 4",
+        "A1 LDA INX 6",
+        "B1 LDA INY 5",
+        "A2 LDX IMM 2",
+        "A6 LDX ZP  3",
+        "B6 LDX ZPY 4",
+        "AE LDX ABS 4",
+        "BE LDX ABY 4",
+        "A0 LDY IMM 2",
+        "A4 LDY ZP  3",
+        "B4 LDY ZPX 4",
+        "AC LDY ABS 4",
+        "BC LDY ABX 4",
+        "4A LSR ACC 2",
+        "46 LSR ZP  5",
+        "56 LSR ZPX 6",
+        "4E LSR ABS 6",
+        "5E LSR ABX 7",
+        "EA NOP IMP 2",
+        "09 ORA IMM 2",
+        "05 ORA ZP  3",
+        "15 ORA ZPX 4",
+        "0D ORA ABS 4",
+        "1D ORA ABX 4",
+        "19 ORA ABY 4",
+        "01 ORA INX 6",
+        "11 ORA INY 5",
+        "48 PHA IMP 3",
+        "08 PHP IMP 3",
+        "68 PLA IMP 4",
+        "28 PLP IMP 4",
+        "2A ROL ACC 2",
+        "26 ROL ZP  5",
+        "36 ROL ZPX 6",
+        "2E ROL ABS 6",
+        "3E ROL ABX 7",
+        "6A ROR ACC 2",
+        "66 ROR ZP  5",
+        "76 ROR ZPX 6",
+        "6E ROR ABS 6",
+        "7E ROR ABX 7",
+        "40 RTI IMP 6",
+        "60 RTS IMP 6",
+        "E9 SBC IMM 2",
+        "E5 SBC ZP  3",
+        "F5 SBC ZPX 4",
+        "ED SBC ABS 4",
+        "FD SBC ABX 4",
+        "F9 SBC ABY 4",
+        "E1 SBC INX 6",
+        "F1 SBC INY 5",
+        "38 SEC IMP 2",
+        "F8 SED IMP 2",
+        "78 SEI IMP 2",
+        "85 STA ZP  3",
+        "95 STA ZPX 4",
+        "8D STA ABS 4",
+        "9D STA ABX 5",
+        "99 STA ABY 5",
+        "81 STA INX 6",
+        "91 STA INY 6",
+        "86 STX ZP  3",
+        "96 STX ZPY 4",
+        "8E STX ABS 4",
+        "84 STY ZP  3",
+        "94 STY ZPX 4",
+        "8C STY ABS 4",
+        "AA TAX IMP 2",
+        "A8 TAY IMP 2",
+        "BA TSX IMP 2",
+        "8A TXA IMP 2",
+        "9A TXS IMP 2",
+        "98 TYA IMP 2"
+    };
+
+    // Instruction metadata by opcode, mnemonics[op] is null for invalid opcodes.
+    public static final String[] mnemonics = new String[256];
+    public static final byte[] modes = new byte[256];
+    public static final byte[] lengths = new byte[256];
+    public static final byte[] cycles = new byte[256];
+    static
+    {
+        java.util.Arrays.fill(lengths, (byte) 1);
+        for(String info : opcodeInfo)
+        {
+            String[] fields = info.split(" +");
+            int opcode = Integer.parseInt(fields[0], 16);
+            int mode = java.util.Arrays.asList(modeNames).indexOf(fields[2]);
+            mnemonics[opcode] = fields[1];
+            modes[opcode] = (byte) mode;
+            lengths[opcode] = (byte) (1 + operandBytes[mode]);
+            cycles[opcode] = (byte) Integer.parseInt(fields[3]);
+        }
+    }
+
+    // Handlers indexed by unsigned opcode.
+    protected static final ExecutionInterface[] instructions = new ExecutionInterface[256];
+    static
+    {
+        for(int i = 0; i < 256; i++) instructions[i] = getInstruction((byte) i);
+    }
     // Interface used to execute instruction on CPU.
     protected interface ExecutionInterface
     {
@@ -59,15 +250,11 @@ public abstract class Opcode6502
     }
     protected static void doADC(CPU6502 cpu, int value)
     {
-        byte num = (byte) (value + (cpu.getFlag(Flags.Carry) ? 1 : 0));
-        cpu.setFlagsADC(cpu.registers.A,num);
-        cpu.registers.A += num;
+        cpu.setALUResult(ALU6502.adc[ALU6502.index(cpu.cpuFlags, cpu.registers.A, value)]);
     }
     protected static void doSBC(CPU6502 cpu, int value)
     {
-        byte num = (byte) (value + ((!cpu.getFlag(Flags.Carry)) ? 1 : 0));
-        cpu.setFlagsSBC(cpu.registers.A,num);
-        cpu.registers.A -= num;
+        cpu.setALUResult(ALU6502.sbc[ALU6502.index(cpu.cpuFlags, cpu.registers.A, value)]);
     }
 
     public static ExecutionInterface getInstruction(byte opcode)
@@ -273,27 +460,27 @@ public abstract class Opcode6502
             };
             // ADC - Zero Page
             case (byte) 0x65 -> (cpu) -> {
-                doADC(cpu, cpu.zeroPage());
+                doADC(cpu, cpu.readZeroPage());
                 return 3;
             };
             // ADC - Zero Page, X
             case (byte) 0x75 -> (cpu) -> {
-                doADC(cpu, cpu.zeroPage(cpu.registers.X));
+                doADC(cpu, cpu.readZeroPage(cpu.registers.X));
                 return 4;
             };
             // ADC - Absolute
             case (byte) 0x6D -> (cpu) -> {
-                doADC(cpu, cpu.absolute());
+                doADC(cpu, cpu.readAbsolute());
                 return 4;
             };
             // ADC - Absolute, X
             case (byte) 0x7D -> (cpu) -> {
-                doADC(cpu, cpu.absolute(cpu.registers.X));
+                doADC(cpu, cpu.readAbsolute(cpu.registers.X));
                 return 4;
             };
             // ADC - Absolute, Y
             case (byte) 0x79 -> (cpu) -> {
-                doADC(cpu, cpu.absolute(cpu.registers.Y));
+                doADC(cpu, cpu.readAbsolute(cpu.registers.Y));
                 return 4;
             };
             // ADC - Indirect, X
@@ -314,27 +501,27 @@ public abstract class Opcode6502
             };
             // SBC - Zero Page
             case (byte) 0xE5 -> (cpu) -> {
-                doSBC(cpu, cpu.zeroPage());
+                doSBC(cpu, cpu.readZeroPage());
                 return 3;
             };
             // SBC - Zero Page, X
             case (byte) 0xF5 -> (cpu) -> {
-                doSBC(cpu, cpu.zeroPage(cpu.registers.X));
+                doSBC(cpu, cpu.readZeroPage(cpu.registers.X));
                 return 4;
             };
             // SBC - Absolute
-            case (byte) 0xFD -> (cpu) -> {
-                doSBC(cpu, cpu.absolute());
+            case (byte) 0xED -> (cpu) -> {
+                doSBC(cpu, cpu.readAbsolute());
                 return 4;
             };
             // SBC - Absolute, X
-            case (byte) 0xED -> (cpu) -> {
-                doSBC(cpu, cpu.absolute(cpu.registers.X));
+            case (byte) 0xFD -> (cpu) -> {
+                doSBC(cpu, cpu.readAbsolute(cpu.registers.X));
                 return 4;
             };
             // SBC - Absolute, Y
             case (byte) 0xF9 -> (cpu) -> {
-                doSBC(cpu, cpu.absolute(cpu.registers.Y));
+                doSBC(cpu, cpu.readAbsolute(cpu.registers.Y));
                 return 4;
             };
             // SBC - Indirect, X
@@ -883,12 +1070,19 @@ public abstract class Opcode6502
             // NOP - Implied
             case (byte) 0xEA -> (cpu) -> 2;
 
+            // Host routine patched in by Traps6502, otherwise invalid.
+            case (byte) 0x02 -> (cpu) -> cpu.traps != null ? cpu.traps.dispatch(cpu) : invalidOpcode(cpu, 0x02);
+
             // Halt on unknown instruction.
-            default -> (cpu) -> {
-                System.out.format("Invalid opcode encountered: 0x%02x\n", opcode);
-                cpu.halt = true;
-                return 1;
-            };
+            default -> (cpu) -> invalidOpcode(cpu, opcode);
         };
     }
+
+    protected static int invalidOpcode(CPU6502 cpu, int opcode)
+    {
+        System.out.format("Invalid opcode encountered: 0x%02x\n", opcode & 0xFF);
+        cpu.fault = String.format("invalid opcode $%02x", opcode & 0xFF);
+        cpu.halt = true;
+        return 1;
+    }
 }
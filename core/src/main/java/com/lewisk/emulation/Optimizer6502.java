@@ -0,0 +1,394 @@
+package com.lewisk.emulation;
+
+import java.util.*;
+
+// Optimizing assembly of a single source file. Instructions are kept in a
+// list until the end, so they can be rewritten and laid out again:
+//   - peephole rules drop loads, stores and jumps that change nothing, and
+//     thread jumps that land on RTS or another JMP,
+//   - absolute operands that end up in page zero use the zero page form,
+//   - branches out of range become an inverted branch over a JMP.
+// Layout repeats until no instruction changes size.
+//
+// Indexed operands are never shortened: $nn,X wraps inside page zero where
+// $00nn,X does not. $FE and $FF are never treated as plain memory.
+public class Optimizer6502
+{
+    private static final int MAX_PASSES = 64;
+    private static final int MAX_PEEPHOLE_PASSES = 16;
+
+    // Registers and flags are unchanged by removed instructions, only N and Z can differ.
+    private static final Set<String> SETS_NZ = Set.of(
+            "LDA", "LDX", "LDY", "TAX", "TAY", "TXA", "TYA", "TSX", "PLA", "AND", "ORA", "EOR", "ADC", "SBC",
+            "CMP", "CPX", "CPY", "INC", "DEC", "INX", "INY", "DEX", "DEY", "ASL", "LSR", "ROL", "ROR", "BIT");
+
+    protected static class Item
+    {
+        int line;
+        String name;
+        Assemble6502.ModeData mode;
+        int[] bytes;     // Operand is a placeholder when symbol is set.
+        String symbol;
+        boolean removed;
+        boolean relaxed; // Branch emitted as inverted branch + JMP.
+        int address;
+        int size;
+
+        int operand()
+        {
+            return bytes.length > 2 ? bytes[1] | (bytes[2] << 8) : bytes[1];
+        }
+    }
+
+    private final List<Item> items = new ArrayList<>();
+    // Label -> index of the item it precedes, removed items pass it on to the next one.
+    private final Map<String, Integer> labels = new HashMap<>();
+    private int end;
+
+    // Statistics
+    public int removed;
+    public int rewritten;
+    public int shortened;
+    public int relaxed;
+    public int passes;
+
+    // Null after printing an error.
+    public Program6502 assemble(String[] data)
+    {
+        int origin = Linker6502.DEFAULT_ORIGIN;
+        Map<String, String> defines = new HashMap<>();
+
+        // Defines and entry point apply to the whole file.
+        String[] code = new String[data.length];
+        for(int i = 0; i < data.length; i++)
+        {
+            String line = Assemble6502.clean(data[i]);
+            if(line == null) continue;
+
+            if(line.startsWith(".entry"))
+            {
+                String arg = line.substring(6).trim();
+                origin = arg.startsWith("$") ? Assemble6502.parseHex(arg.toLowerCase(), 1, arg.length() - 1) : -1;
+                if(origin < 0 || origin > 0xFFFF)
+                {
+                    System.out.format("Syntax error -> %s (line %d)\n", line, i + 1);
+                    return null;
+                }
+                continue;
+            }
+
+            // Everything is visible in a single program.
+            if(line.startsWith(".export")) continue;
+
+            if(line.startsWith("define") && line.length() > 6 && Character.isWhitespace(line.charAt(6)))
+            {
+                String[] varArgs = line.split("\\s+");
+                if(varArgs.length != 3 || !Assemble6502.isLabelName(varArgs[1]))
+                {
+                    System.out.format("Syntax error -> %s (line %d)\n", line, i + 1);
+                    return null;
+                }
+                defines.put(varArgs[1], varArgs[2]);
+                continue;
+            }
+            code[i] = line;
+        }
+
+        for(int i = 0; i < code.length; i++)
+        {
+            String line = code[i];
+            if(line == null) continue;
+
+            int labelEnd = line.indexOf(':');
+            if(labelEnd >= 0)
+            {
+                String label = line.substring(0, labelEnd).trim();
+                if(!Assemble6502.isLabelName(label))
+                {
+                    System.out.format("Syntax error -> %s (line %d)\nInvalid label name.\n", line, i + 1);
+                    return null;
+                }
+                if(labels.put(label, items.size()) != null)
+                {
+                    System.out.format("Duplicate label -> %s (line %d)\n", label, i + 1);
+                    return null;
+                }
+                line = line.substring(labelEnd + 1);
+            }
+
+            var instr = Assemble6502.parseInstruction(line, i + 1, defines);
+            if(instr == null) continue;
+            if(instr.bytes == null)
+            {
+                System.out.format("Syntax error -> %s (line %d)\n", line.trim(), i + 1);
+                return null;
+            }
+
+            Item item = new Item();
+            item.line = i + 1;
+            item.name = instr.name;
+            item.mode = instr.mode;
+            item.bytes = instr.bytes;
+            item.symbol = instr.symbol;
+            items.add(item);
+        }
+
+        for(Item item : items)
+        {
+            if(item.symbol != null && !labels.containsKey(item.symbol))
+            {
+                System.out.format("Undefined label -> %s (line %d)\n", item.symbol, item.line);
+                return null;
+            }
+        }
+
+        for(int pass = 0; pass < MAX_PEEPHOLE_PASSES && peephole(); pass++);
+        if(!layout(origin, true) && !layout(origin, false))
+        {
+            System.out.format("Layout did not settle -> %d passes\n", passes);
+            return null;
+        }
+        return emit(origin, data.length, defines);
+    }
+
+    // Index of the next live item after i, items.size() at the end.
+    private int next(int i)
+    {
+        i++;
+        while(i < items.size() && items.get(i).removed) i++;
+        return i;
+    }
+
+    // Live item a label points at.
+    private int resolve(String label)
+    {
+        return next(labels.get(label) - 1);
+    }
+
+    private int labelAddress(String label)
+    {
+        int index = resolve(label);
+        return index < items.size() ? items.get(index).address : end;
+    }
+
+    // True if a label points at the live item at index.
+    private boolean isLabelled(int index)
+    {
+        for(String label : labels.keySet())
+        {
+            if(resolve(label) == index) return true;
+        }
+        return false;
+    }
+
+    private static boolean isJump(Item item)
+    {
+        return item.name.equals("JMP") && item.mode == Assemble6502.ABS && item.symbol != null;
+    }
+
+    // Zero page operand other than the random and key bytes.
+    private static boolean isPlainZeroPage(Item item)
+    {
+        return item.mode == Assemble6502.ZP && item.symbol == null && item.bytes[1] < 0xFE;
+    }
+
+    private void remove(Item item)
+    {
+        item.removed = true;
+        removed++;
+    }
+
+    // One pass over the peephole rules, true if anything changed.
+    protected boolean peephole()
+    {
+        boolean changed = false;
+        for(int i = next(-1); i < items.size(); i = next(i))
+        {
+            Item a = items.get(i);
+            int j = next(i);
+            Item b = j < items.size() ? items.get(j) : null;
+
+            // JMP or branch to the next instruction.
+            if(a.symbol != null && (isJump(a) || Assemble6502.isBranch(a.name)) && resolve(a.symbol) == j && b != null)
+            {
+                remove(a);
+                changed = true;
+                continue;
+            }
+
+            // JMP to RTS returns directly, JMP to JMP goes to the final target.
+            if(isJump(a) && resolve(a.symbol) < items.size())
+            {
+                Item target = items.get(resolve(a.symbol));
+                if(target.name.equals("RTS"))
+                {
+                    a.name = "RTS";
+                    a.mode = Assemble6502.IMP;
+                    a.bytes = new int[] { 0x60 };
+                    a.symbol = null;
+                    rewritten++;
+                    changed = true;
+                }
+                else if(isJump(target) && target != a && !target.symbol.equals(a.symbol))
+                {
+                    a.symbol = target.symbol;
+                    rewritten++;
+                    changed = true;
+                }
+                continue;
+            }
+            if(b == null) continue;
+
+            // Tail call: JSR, RTS becomes JMP. The RTS stays if something else jumps to it.
+            if(a.name.equals("JSR") && a.symbol != null && b.name.equals("RTS"))
+            {
+                a.name = "JMP";
+                a.bytes = new int[] { 0x4C, 0, 0 };
+                if(!isLabelled(j)) remove(b);
+                rewritten++;
+                changed = true;
+                continue;
+            }
+
+            // Immediate load overwritten by the next load of the same register.
+            if(a.name.startsWith("LD") && a.mode == Assemble6502.IMM && b.name.equals(a.name))
+            {
+                remove(a);
+                changed = true;
+                continue;
+            }
+
+            char register = a.name.charAt(2);
+            boolean sameOperand = isPlainZeroPage(a) && isPlainZeroPage(b) && a.bytes[1] == b.bytes[1] && b.name.charAt(2) == register;
+
+            // Store then load of the same byte, kept unless the next instruction sets N and Z anyway.
+            if(sameOperand && a.name.startsWith("ST") && b.name.startsWith("LD") && !isLabelled(j))
+            {
+                int k = next(j);
+                if(k < items.size() && SETS_NZ.contains(items.get(k).name))
+                {
+                    remove(b);
+                    changed = true;
+                    continue;
+                }
+            }
+
+            // Load then store of the same byte.
+            if(sameOperand && a.name.startsWith("LD") && b.name.startsWith("ST") && !isLabelled(j))
+            {
+                remove(b);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Places items from origin until no size changes, false if it does not settle.
+    // Branches only ever grow, so without label shortening this always settles.
+    protected boolean layout(int origin, boolean shortenLabels)
+    {
+        for(Item item : items) item.size = item.relaxed ? 5 : item.bytes.length;
+        for(int pass = 0; pass < MAX_PASSES; pass++)
+        {
+            passes++;
+            int address = origin;
+            for(int i = next(-1); i < items.size(); i = next(i))
+            {
+                Item item = items.get(i);
+                item.address = address;
+                address += item.size;
+            }
+            end = address;
+
+            boolean changed = false;
+            for(int i = next(-1); i < items.size(); i = next(i))
+            {
+                Item item = items.get(i);
+                int size = size(item, shortenLabels);
+                if(size != item.size)
+                {
+                    item.size = size;
+                    changed = true;
+                }
+            }
+            if(!changed) return true;
+        }
+        return false;
+    }
+
+    private int size(Item item, boolean shortenLabels)
+    {
+        if(Assemble6502.isBranch(item.name) && item.symbol != null)
+        {
+            int offset = labelAddress(item.symbol) - (item.address + 2);
+            if(offset > 127 || offset < -128) item.relaxed = true;
+            return item.relaxed ? 5 : 2;
+        }
+        if(item.mode == Assemble6502.ABS && Assemble6502.opcode(item.name, Assemble6502.ZP) >= 0)
+        {
+            int value = item.symbol == null ? item.operand() : shortenLabels ? labelAddress(item.symbol) : CPU6502.MEMSIZE;
+            if(value < 0x100) return 2;
+        }
+        return item.bytes.length;
+    }
+
+    protected Program6502 emit(int origin, int lines, Map<String, String> defines)
+    {
+        if(end > CPU6502.MEMSIZE)
+        {
+            System.out.format("Program does not fit in memory -> %04x bytes\n", end - origin);
+            return null;
+        }
+
+        byte[] output = new byte[end - origin];
+        for(int i = next(-1); i < items.size(); i = next(i))
+        {
+            Item item = items.get(i);
+            int at = item.address - origin;
+            int value = item.symbol == null ? -1 : labelAddress(item.symbol);
+
+            if(item.relaxed)
+            {
+                output[at] = (byte) (item.bytes[0] ^ 0x20); // Opposite condition
+                output[at + 1] = 3;
+                output[at + 2] = (byte) 0x4C;
+                output[at + 3] = (byte) value;
+                output[at + 4] = (byte) (value >> 8);
+                relaxed++;
+            }
+            else if(Assemble6502.isBranch(item.name) && value >= 0)
+            {
+                output[at] = (byte) item.bytes[0];
+                output[at + 1] = (byte) (value - (item.address + 2));
+            }
+            else if(item.size < item.bytes.length)
+            {
+                output[at] = (byte) Assemble6502.opcode(item.name, Assemble6502.ZP);
+                output[at + 1] = (byte) (value >= 0 ? value : item.operand());
+                shortened++;
+            }
+            else
+            {
+                for(int b = 0; b < item.bytes.length; b++) output[at + b] = (byte) item.bytes[b];
+                if(value >= 0)
+                {
+                    output[at + 1] = (byte) value;
+                    output[at + 2] = (byte) (value >> 8);
+                }
+            }
+        }
+
+        // First byte of each source line, empty lines start where the next one does.
+        int[] lineStart = new int[lines + 1];
+        int k = next(-1);
+        for(int line = 0; line <= lines; line++)
+        {
+            while(k < items.size() && items.get(k).line <= line) k = next(k);
+            lineStart[line] = (k < items.size() ? items.get(k).address : end) - origin;
+        }
+
+        Map<String, Integer> symbols = new HashMap<>();
+        for(String label : labels.keySet()) symbols.put(label, labelAddress(label));
+        return new Program6502(origin, output, symbols, defines, lineStart);
+    }
+}
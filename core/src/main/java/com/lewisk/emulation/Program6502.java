@@ -0,0 +1,43 @@
+package com.lewisk.emulation;
+
+import java.util.Map;
+
+// Assembled binary image, bytes[0] is loaded at origin.
+public class Program6502
+{
+    public final int origin;
+    public final byte[] bytes;
+
+    // Label -> absolute address.
+    public final Map<String, Integer> symbols;
+    public final Map<String, String> defines;
+
+    // Offset in bytes of each source line, lineStart[i+1] - lineStart[i]
+    // is the size of line i. Null when not assembled from source.
+    public final int[] lineStart;
+
+    public Program6502(int origin, byte[] bytes, Map<String, Integer> symbols)
+    {
+        this(origin, bytes, symbols, Map.of(), null);
+    }
+
+    public Program6502(int origin, byte[] bytes, Map<String, Integer> symbols, Map<String, String> defines, int[] lineStart)
+    {
+        this.origin = origin;
+        this.bytes = bytes;
+        this.symbols = symbols;
+        this.defines = defines;
+        this.lineStart = lineStart;
+    }
+
+    public int getLength()
+    {
+        return bytes.length;
+    }
+
+    // Optional "0600: a9 00 ..." text listing of the image.
+    public String[] toHexListing()
+    {
+        return Assemble6502.toHexListing(origin, bytes, bytes.length);
+    }
+}
@@ -0,0 +1,201 @@
+package com.lewisk.emulation;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// On-disk cache of assembled programs keyed by a hash of the sources and
+// the assembler version. A hit maps the cached image instead of parsing.
+public class ProgramCache6502
+{
+    private static final int MAGIC = 0x36353032; // "6502"
+
+    private final Path directory;
+
+    // Statistics
+    public int hits;
+    public int misses;
+
+    public ProgramCache6502(Path directory)
+    {
+        this.directory = directory;
+    }
+
+    public static ProgramCache6502 getDefault()
+    {
+        return new ProgramCache6502(Path.of(System.getProperty("java.io.tmpdir"), "6502java-cache"));
+    }
+
+    // Classpath resource, like Assemble6502.assemble(String).
+    public Program6502 assemble(String resource)
+    {
+        return assemble(resource, Assemble6502.readLines(resource));
+    }
+
+    public Program6502 assemble(String name, String[] source)
+    {
+        String key = hash(new String[] { name }, new String[][] { source });
+        Program6502 program = load(key);
+        if(program != null) return program;
+
+        program = Assemble6502.assembleProgram(source);
+        if(program != null) store(key, program);
+        return program;
+    }
+
+    // Multi-file build, the cache key covers every file in link order.
+    public Program6502 build(List<Path> files) throws IOException
+    {
+        String[] names = new String[files.size()];
+        String[][] sources = new String[files.size()][];
+        for(int i = 0; i < names.length; i++)
+        {
+            names[i] = files.get(i).getFileName().toString();
+            sources[i] = Files.readAllLines(files.get(i)).toArray(new String[0]);
+        }
+
+        String key = hash(names, sources);
+        Program6502 program = load(key);
+        if(program != null) return program;
+
+        program = new Linker6502().build(files);
+        if(program != null) store(key, program);
+        return program;
+    }
+
+    protected static String hash(String[] names, String[][] sources)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(Assemble6502.VERSION.getBytes(StandardCharsets.UTF_8));
+        for(int i = 0; i < names.length; i++)
+        {
+            digest.update((byte) 0);
+            digest.update(names[i].getBytes(StandardCharsets.UTF_8));
+            for(String line : sources[i])
+            {
+                digest.update((byte) '\n');
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        StringBuilder key = new StringBuilder(64);
+        for(byte b : digest.digest()) key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    protected Program6502 load(String key)
+    {
+        Path file = directory.resolve(key + ".bin");
+        if(!Files.isRegularFile(file))
+        {
+            misses++;
+            return null;
+        }
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(data.getInt() != MAGIC)
+            {
+                misses++;
+                return null;
+            }
+
+            int origin = data.getInt();
+            byte[] bytes = new byte[data.getInt()];
+            data.get(bytes);
+
+            Map<String, Integer> symbols = new HashMap<>();
+            for(int i = data.getInt(); i > 0; i--) symbols.put(readString(data), data.getInt());
+
+            Map<String, String> defines = new HashMap<>();
+            for(int i = data.getInt(); i > 0; i--) defines.put(readString(data), readString(data));
+
+            int[] lineStart = null;
+            int lines = data.getInt();
+            if(lines >= 0)
+            {
+                lineStart = new int[lines];
+                data.asIntBuffer().get(lineStart);
+            }
+
+            hits++;
+            return new Program6502(origin, bytes, symbols, defines, lineStart);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // Unreadable or truncated entry, assemble again.
+            misses++;
+            return null;
+        }
+    }
+
+    protected void store(String key, Program6502 program)
+    {
+        try
+        {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(program.origin);
+                out.writeInt(program.bytes.length);
+                out.write(program.bytes);
+
+                out.writeInt(program.symbols.size());
+                for(Map.Entry<String, Integer> e : program.symbols.entrySet())
+                {
+                    writeString(out, e.getKey());
+                    out.writeInt(e.getValue());
+                }
+
+                out.writeInt(program.defines.size());
+                for(Map.Entry<String, String> e : program.defines.entrySet())
+                {
+                    writeString(out, e.getKey());
+                    writeString(out, e.getValue());
+                }
+
+                out.writeInt(program.lineStart == null ? -1 : program.lineStart.length);
+                if(program.lineStart != null)
+                    for(int offset : program.lineStart) out.writeInt(offset);
+            }
+            Files.move(temp, directory.resolve(key + ".bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            System.out.format("Could not write program cache -> %s\n >> %s\n", directory, e.toString());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer data)
+    {
+        byte[] bytes = new byte[Short.toUnsignedInt(data.getShort())];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,39 @@
+package com.lewisk.emulation;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Pages shared between cores on different threads. Bytes are read with
+// acquire and written with release semantics: once a core sees a flag byte
+// set by another core it also sees everything that core wrote before it.
+public class SharedMemory6502 implements MemoryHandler6502
+{
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    public final int base;
+    protected final byte[] memory;
+
+    public SharedMemory6502(int firstPage, int pageCount)
+    {
+        base = firstPage << 8;
+        memory = new byte[pageCount << 8];
+    }
+
+    @Override
+    public boolean isPlainMemory()
+    {
+        return true;
+    }
+
+    @Override
+    public byte read(int address)
+    {
+        return (byte) BYTES.getAcquire(memory, address - base);
+    }
+
+    @Override
+    public void write(int address, int value)
+    {
+        BYTES.setRelease(memory, address - base, (byte) value);
+    }
+}
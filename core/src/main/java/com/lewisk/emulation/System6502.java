@@ -0,0 +1,126 @@
+package com.lewisk.emulation;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Several CPU6502 cores, each on its own host thread, sharing a memory bus.
+// Pages are private to each core unless shared with share() or mailbox().
+// With a cycle window set the cores meet at a barrier every window cycles,
+// otherwise they run freely and only synchronize through shared memory.
+public class System6502
+{
+    // Each core finds its index here in its private zero page.
+    public static final short CORE_ID = 0x00FD;
+
+    public final CPU6502[] cores;
+    private final Thread[] threads;
+    private Phaser barrier;
+
+    // Cycles between barriers, 0 runs the cores freely.
+    public int window;
+    // Per core cycle budget.
+    public long cycleLimit = Long.MAX_VALUE;
+
+    // Statistics, per core, valid after join().
+    public final long[] instructions;
+    public final long[] cycles;
+
+    public System6502(int count)
+    {
+        cores = new CPU6502[count];
+        threads = new Thread[count];
+        instructions = new long[count];
+        cycles = new long[count];
+        for(int i = 0; i < count; i++) cores[i] = new CPU6502();
+    }
+
+    // Shares pages [firstPage, firstPage + pageCount) between all cores.
+    public SharedMemory6502 share(int firstPage, int pageCount)
+    {
+        SharedMemory6502 shared = new SharedMemory6502(firstPage, pageCount);
+        for(CPU6502 cpu : cores) cpu.map(firstPage, pageCount, shared);
+        return shared;
+    }
+
+    public Mailbox6502 mailbox(int page)
+    {
+        Mailbox6502 mailbox = new Mailbox6502();
+        for(CPU6502 cpu : cores) cpu.map(page, 1, mailbox);
+        return mailbox;
+    }
+
+    // Loads program into every core, shared pages are written once per core.
+    public void load(Program6502 program)
+    {
+        for(int i = 0; i < cores.length; i++)
+        {
+            cores[i].importRAM(program);
+            cores[i].registers.PC = (short) program.origin;
+            cores[i].writeRAM(CORE_ID, i);
+        }
+    }
+
+    public void start()
+    {
+        barrier = window > 0 ? new Phaser(cores.length) : null;
+        for(int i = 0; i < cores.length; i++)
+        {
+            int index = i;
+            cores[i].halt = false;
+            threads[i] = new Thread(() -> runCore(index), "System6502-" + i);
+            threads[i].start();
+        }
+    }
+
+    public void join() throws InterruptedException
+    {
+        for(Thread thread : threads)
+        {
+            if(thread != null) thread.join();
+        }
+    }
+
+    public void stop() throws InterruptedException
+    {
+        for(Thread thread : threads)
+        {
+            if(thread != null) thread.interrupt();
+        }
+        join();
+    }
+
+    // Runs one core until BRK, its cycle budget or interrupt.
+    protected void runCore(int index)
+    {
+        CPU6502 cpu = cores[index];
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        long executed = 0;
+        long elapsed = 0;
+        long windowEnd = window;
+        try
+        {
+            while(!cpu.halt && elapsed < cycleLimit)
+            {
+                cpu.writeRAM((short) 0x00FE, rng.nextInt() & 0xFF);
+                cpu.execute();
+                elapsed += cpu.waitCycles;
+                executed++;
+
+                if(barrier != null && elapsed >= windowEnd)
+                {
+                    windowEnd += window;
+                    barrier.arriveAndAwaitAdvance();
+                }
+                if((executed & 0x3FF) == 0 && Thread.interrupted()) break;
+            }
+        }
+        finally
+        {
+            // Halted cores stop holding the others at the barrier.
+            if(barrier != null) barrier.arriveAndDeregister();
+            cpu.halt = true;
+            instructions[index] = executed;
+            cycles[index] = elapsed;
+        }
+    }
+}
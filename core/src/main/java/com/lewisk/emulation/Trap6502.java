@@ -0,0 +1,9 @@
+package com.lewisk.emulation;
+
+// Host implementation of a guest routine, see Traps6502.
+@FunctionalInterface
+public interface Trap6502
+{
+    // Runs against the CPU state at the routine entry, false runs the guest routine instead.
+    boolean run(CPU6502 cpu);
+}
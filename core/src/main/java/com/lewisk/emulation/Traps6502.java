@@ -0,0 +1,146 @@
+package com.lewisk.emulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs Java code in place of guest routines. Registered addresses are
+// patched with the reserved opcode $02, so only they reach the trap table
+// and no other instruction pays for a check. When PC reaches one, the host
+// routine runs against registers and memory, its declared cycles are added
+// and it returns like RTS. A routine that declines runs the original
+// instruction and continues in guest code.
+//
+// Patches are re-applied whenever the CPU bulk loads memory. Reads of a
+// patched address see $02. Patches go straight into backing memory, so they
+// are not guest writes, and only pages that take CPU6502.pokeRAM can hold a
+// trap (plain or file mapped RAM, not I/O, shared or banked pages).
+public class Traps6502
+{
+    public static final int TRAP_OPCODE = 0x02;
+
+    protected static class Entry
+    {
+        final int address;
+        final int cycles;
+        final Trap6502 routine;
+        int original = -1;
+        long calls;
+
+        Entry(int address, int cycles, Trap6502 routine)
+        {
+            this.address = address;
+            this.cycles = cycles;
+            this.routine = routine;
+        }
+    }
+
+    private final Entry[] entries = new Entry[CPU6502.MEMSIZE];
+    private final List<Entry> registered = new ArrayList<>();
+    private CPU6502 cpu;
+
+    // Statistics
+    public long calls;
+    public long declined;
+
+    public void attach(CPU6502 cpu)
+    {
+        this.cpu = cpu;
+        cpu.traps = this;
+        install();
+    }
+
+    // Puts the guest code back.
+    public void detach()
+    {
+        if(cpu == null) return;
+        for(Entry entry : registered) restore(entry);
+        cpu.traps = null;
+        cpu = null;
+    }
+
+    // cycles is charged per call, including the JSR's return.
+    // False after printing an error if the address can't be patched.
+    public boolean register(int address, int cycles, Trap6502 routine)
+    {
+        address &= CPU6502.MEMSIZE - 1;
+        unregister(address);
+        Entry entry = new Entry(address, cycles, routine);
+        if(cpu != null && !patch(entry)) return false;
+        entries[address] = entry;
+        registered.add(entry);
+        return true;
+    }
+
+    // Registers against a label of program, false after printing an error.
+    public boolean register(Program6502 program, String label, int cycles, Trap6502 routine)
+    {
+        Integer address = program.symbols.get(label);
+        if(address == null)
+        {
+            System.out.format("Undefined label -> %s\n", label);
+            return false;
+        }
+        return register(address, cycles, routine);
+    }
+
+    public void unregister(int address)
+    {
+        Entry entry = entries[address & (CPU6502.MEMSIZE - 1)];
+        if(entry == null) return;
+        if(cpu != null) restore(entry);
+        entries[entry.address] = null;
+        registered.remove(entry);
+    }
+
+    // Calls of the routine at address so far.
+    public long calls(int address)
+    {
+        Entry entry = entries[address & (CPU6502.MEMSIZE - 1)];
+        return entry == null ? 0 : entry.calls;
+    }
+
+    // Patches every registered address, keeping whatever guest code is there now.
+    // Addresses that can't be patched stay guest code.
+    public void install()
+    {
+        for(Entry entry : registered) patch(entry);
+    }
+
+    private boolean patch(Entry entry)
+    {
+        int current = cpu.peekRAM((short) entry.address) & 0xFF;
+        if(current == TRAP_OPCODE && entry.original >= 0) return true;
+        if(!cpu.pokeRAM((short) entry.address, TRAP_OPCODE))
+        {
+            System.out.format("Cannot trap address -> $%04x\n >> page is I/O, shared or banked memory\n", entry.address);
+            entry.original = -1;
+            return false;
+        }
+        entry.original = current;
+        return true;
+    }
+
+    private void restore(Entry entry)
+    {
+        if(entry.original >= 0 && (cpu.peekRAM((short) entry.address) & 0xFF) == TRAP_OPCODE)
+            cpu.pokeRAM((short) entry.address, entry.original);
+        entry.original = -1;
+    }
+
+    // Called for opcode $02, returns the cycles taken. PC is at the trap.
+    protected int dispatch(CPU6502 cpu)
+    {
+        Entry entry = entries[Short.toUnsignedInt(cpu.registers.PC)];
+        if(entry == null || entry.original < 0) return Opcode6502.invalidOpcode(cpu, TRAP_OPCODE);
+
+        entry.calls++;
+        calls++;
+        if(entry.routine.run(cpu))
+        {
+            cpu.popPC();
+            return entry.cycles;
+        }
+        declined++;
+        return Opcode6502.instructions[entry.original].execute(cpu);
+    }
+}
@@ -0,0 +1,47 @@
+package com.lewisk.emulation;
+
+import java.util.Arrays;
+
+// Append-only record of memory writes, one int per write: address << 8 | value.
+public class WriteLog6502
+{
+    protected int[] entries;
+    protected int count;
+
+    public WriteLog6502()
+    {
+        entries = new int[1024];
+    }
+
+    public void record(short address, int value)
+    {
+        if(count == entries.length) entries = Arrays.copyOf(entries, count * 2);
+        entries[count++] = (Short.toUnsignedInt(address) << 8) | (value & 0xFF);
+    }
+
+    public void clear()
+    {
+        count = 0;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    public int address(int index)
+    {
+        return entries[index] >>> 8;
+    }
+
+    public int value(int index)
+    {
+        return entries[index] & 0xFF;
+    }
+
+    // Index of the first differing write, -1 if both logs are equal.
+    public int mismatch(WriteLog6502 other)
+    {
+        return Arrays.mismatch(entries, 0, count, other.entries, 0, other.count);
+    }
+}
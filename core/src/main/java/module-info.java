@@ -0,0 +1,3 @@
+module com.lewisk.emulation {
+    exports com.lewisk.emulation;
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+; Shift-and-add 8x8 multiply over every operand pair summed into 32 bits,
+; then a decimal mode counter from 0000 to 9999.
+; Result: sum0-sum3 = $00 $40 $80 $3f, bcdH:bcdL = $99 $99.
+
+define mulA     $00 ; multiplicand, low byte of the product on return
+define mulB     $01
+define prodL    $02
+define prodH    $03
+define sum0     $04
+define sum1     $05
+define sum2     $06
+define sum3     $07
+define i        $08
+define j        $09
+define bcdL     $0a
+define bcdH     $0b
+
+  lda #$00
+  sta sum0
+  sta sum1
+  sta sum2
+  sta sum3
+  sta i
+outer:
+  lda #$00
+  sta j
+inner:
+  lda i
+  sta mulA
+  lda j
+  sta mulB
+  jsr multiply
+  clc
+  lda sum0
+  adc prodL
+  sta sum0
+  lda sum1
+  adc prodH
+  sta sum1
+  lda sum2
+  adc #$00
+  sta sum2
+  lda sum3
+  adc #$00
+  sta sum3
+  inc j
+  bne inner
+  inc i
+  bne outer
+
+  sed
+  lda #$00
+  sta bcdL
+  sta bcdH
+count:
+  clc
+  lda bcdL
+  adc #$01
+  sta bcdL
+  lda bcdH
+  adc #$00
+  sta bcdH
+  cmp #$99
+  bne count
+  lda bcdL
+  cmp #$99
+  bne count
+  cld
+  brk
+
+; prodH:prodL = mulA * mulB
+multiply:
+  lda #$00
+  ldx #$08
+  lsr mulA
+mulLoop:
+  bcc noAdd
+  clc
+  adc mulB
+noAdd:
+  ror a
+  ror mulA
+  dex
+  bne mulLoop
+  sta prodH
+  lda mulA
+  sta prodL
+  rts
@@ -0,0 +1,50 @@
+; Copies 4K from $1000 to $2000 a page at a time through (zp),Y, 32 times.
+; Result: $2000-$2FFF holds (offset EOR page) like the source.
+
+define srcL     $00
+define srcH     $01
+define dstL     $02
+define dstH     $03
+define passes   $04
+
+  lda #$00
+  sta srcL
+  sta dstL
+  lda #$20
+  sta passes
+
+  ; Fill source $1000-$1FFF
+  lda #$10
+  sta srcH
+  ldy #$00
+fill:
+  tya
+  eor srcH
+  sta (srcL),y
+  iny
+  bne fill
+  inc srcH
+  lda srcH
+  cmp #$20
+  bne fill
+
+copy:
+  lda #$10
+  sta srcH
+  lda #$20
+  sta dstH
+  ldx #$10
+  ldy #$00
+copyPage:
+  lda (srcL),y
+  sta (dstL),y
+  iny
+  bne copyPage
+  inc srcH
+  inc dstH
+  dex
+  bne copyPage
+
+  dec passes
+  bne copy
+  brk
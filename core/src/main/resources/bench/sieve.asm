@@ -0,0 +1,43 @@
+; Sieve of Eratosthenes over 0-255, repeated 64 times.
+; Result: count = 54 primes below 256.
+
+define flags    $1000 ; one byte per number, non-zero = composite
+define count    $20   ; primes found in the last pass
+define passes   $21
+define prime    $22
+
+  lda #$40
+  sta passes
+
+pass:
+  lda #$00
+  tax
+clear:
+  sta flags,x
+  inx
+  bne clear
+
+  sta count
+  ldx #$02
+next:
+  lda flags,x
+  bne composite
+  inc count
+  stx prime
+  txa
+mark:
+  clc
+  adc prime
+  bcs composite ; past 255
+  tay
+  lda #$01
+  sta flags,y
+  tya
+  jmp mark
+composite:
+  inx
+  bne next
+
+  dec passes
+  bne pass
+  brk
@@ -0,0 +1,44 @@
+; Bubble sort of 256 bytes starting in reverse order (worst case).
+; Result: $1000-$10FF holds $00-$FF ascending.
+
+define array     $1000
+define arrayNext $1001
+define swapped   $00
+define last      $01   ; last index compared in this pass
+
+  ldx #$00
+fillLoop:
+  txa
+  eor #$ff
+  sta array,x
+  inx
+  bne fillLoop
+
+  lda #$ff
+  sta last
+outer:
+  lda #$00
+  sta swapped
+  ldx #$00
+inner:
+  lda array,x
+  cmp arrayNext,x
+  bcc noSwap
+  beq noSwap
+  tay
+  lda arrayNext,x
+  sta array,x
+  tya
+  sta arrayNext,x
+  lda #$01
+  sta swapped
+noSwap:
+  inx
+  cpx last
+  bne inner
+  dec last
+  beq done
+  lda swapped
+  bne outer
+done:
+  brk
@@ -0,0 +1,110 @@
+package com.lewisk.emulation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Decimal mode ADC/SBC against known NMOS 6502 results.
+class ALU6502Test
+{
+    private static final int DECIMAL = 0x08;
+    private static final int CARRY = 0x01;
+
+    // { A, operand, carry in, result, carry out }
+    private static final int[][] ADC = {
+            { 0x00, 0x00, 0, 0x00, 0 },
+            { 0x09, 0x01, 0, 0x10, 0 },
+            { 0x12, 0x34, 0, 0x46, 0 },
+            { 0x15, 0x26, 0, 0x41, 0 },
+            { 0x58, 0x46, 1, 0x05, 1 },
+            { 0x81, 0x92, 0, 0x73, 1 },
+            { 0x99, 0x00, 1, 0x00, 1 },
+            { 0x99, 0x99, 1, 0x99, 1 },
+            { 0x50, 0x50, 0, 0x00, 1 },
+    };
+
+    private static final int[][] SBC = {
+            { 0x00, 0x00, 1, 0x00, 1 },
+            { 0x46, 0x12, 1, 0x34, 1 },
+            { 0x40, 0x13, 1, 0x27, 1 },
+            { 0x32, 0x02, 0, 0x29, 1 },
+            { 0x12, 0x21, 1, 0x91, 0 },
+            { 0x21, 0x34, 1, 0x87, 0 },
+            { 0x00, 0x01, 1, 0x99, 0 },
+            { 0x10, 0x10, 0, 0x99, 0 },
+    };
+
+    private static void check(char[] table, int[][] cases, String name)
+    {
+        for(int[] c : cases)
+        {
+            byte flags = (byte) (DECIMAL | (c[2] != 0 ? CARRY : 0));
+            char entry = table[ALU6502.index(flags, (byte) c[0], c[1])];
+            String what = String.format("%s $%02x, $%02x, C=%d", name, c[0], c[1], c[2]);
+            assertEquals(c[3], entry & 0xFF, what + " result");
+            assertEquals(c[4], (entry >> 8) & CARRY, what + " carry");
+        }
+    }
+
+    @Test
+    void decimalAdc()
+    {
+        check(ALU6502.adc, ADC, "ADC");
+    }
+
+    @Test
+    void decimalSbc()
+    {
+        check(ALU6502.sbc, SBC, "SBC");
+    }
+
+    // NMOS: Z follows the binary sum, $99 + $01 gives $00 with Z clear.
+    @Test
+    void decimalZeroFollowsBinarySum()
+    {
+        char entry = ALU6502.adc[ALU6502.index((byte) DECIMAL, (byte) 0x99, 0x01)];
+        assertEquals(0x00, entry & 0xFF);
+        assertEquals(0, (entry >> 8) & 0x02);
+    }
+
+    // Without D the tables hold plain sums and differences.
+    @Test
+    void binaryAdcAndSbc()
+    {
+        for(int a = 0; a < 0x100; a += 7)
+        {
+            for(int m = 0; m < 0x100; m += 11)
+            {
+                char adc = ALU6502.adc[ALU6502.index((byte) 0, (byte) a, m)];
+                assertEquals((a + m) & 0xFF, adc & 0xFF);
+                assertEquals(a + m > 0xFF ? 1 : 0, (adc >> 8) & CARRY);
+
+                char sbc = ALU6502.sbc[ALU6502.index((byte) CARRY, (byte) a, m)];
+                assertEquals((a - m) & 0xFF, sbc & 0xFF);
+                assertEquals(a >= m ? 1 : 0, (sbc >> 8) & CARRY);
+            }
+        }
+    }
+
+    // The CPU goes through the tables: SED, CLC, LDA #$58, ADC #$46 gives $04 with carry.
+    @Test
+    void cpuUsesDecimalMode()
+    {
+        Program6502 program = Assemble6502.assembleProgram(new String[] {
+                "SED",
+                "CLC",
+                "LDA #$58",
+                "ADC #$46",
+                "STA $10",
+                "BRK"
+        });
+        assertNotNull(program);
+        CPU6502 cpu = new CPU6502();
+        cpu.importRAM(program);
+        cpu.registers.PC = (short) program.origin;
+        cpu.halt = false;
+        for(int i = 0; i < 100 && !cpu.halt; i++) cpu.execute();
+        assertEquals((byte) 0x04, cpu.peekRAM((short) 0x10));
+        assertTrue(cpu.getFlag(CPU6502.Flags.Carry));
+    }
+}
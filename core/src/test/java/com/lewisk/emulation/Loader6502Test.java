@@ -0,0 +1,110 @@
+package com.lewisk.emulation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Intel HEX parsing: data, start address records and every rejection path.
+class Loader6502Test
+{
+    private static final String EOF = ":00000001FF";
+
+    // ":LLAAAATT<data>CC" with a correct checksum.
+    private static String record(int type, int address, int... data)
+    {
+        StringBuilder line = new StringBuilder(String.format(":%02X%04X%02X", data.length, address, type));
+        int sum = data.length + (address >> 8) + address + type;
+        for(int b : data)
+        {
+            line.append(String.format("%02X", b));
+            sum += b;
+        }
+        return line.append(String.format("%02X", -sum & 0xFF)).toString();
+    }
+
+    private static Path write(String... lines) throws IOException
+    {
+        Path file = Files.createTempFile("loader", ".hex");
+        file.toFile().deleteOnExit();
+        Files.write(file, String.join("\n", lines).getBytes());
+        return file;
+    }
+
+    private static int load(CPU6502 cpu, String... lines) throws IOException
+    {
+        return Loader6502.loadIntelHex(cpu, write(lines), 0x0600);
+    }
+
+    @Test
+    void dataRecordsLoad() throws IOException
+    {
+        CPU6502 cpu = new CPU6502();
+        int start = load(cpu, record(0x00, 0x0600, 0xA9, 0x01), record(0x00, 0x0602, 0x00), EOF);
+        assertEquals(0x0600, start);
+        assertEquals((byte) 0xA9, cpu.peekRAM((short) 0x0600));
+        assertEquals((byte) 0x01, cpu.peekRAM((short) 0x0601));
+        assertEquals((byte) 0x00, cpu.peekRAM((short) 0x0602));
+    }
+
+    @Test
+    void startAddressRecords() throws IOException
+    {
+        assertEquals(0x0812, load(new CPU6502(), record(0x03, 0x0000, 0x00, 0x00, 0x08, 0x12), EOF));
+        assertEquals(0x0934, load(new CPU6502(), record(0x05, 0x0000, 0x00, 0x00, 0x09, 0x34), EOF));
+    }
+
+    @Test
+    void zeroExtendedAddressIsAccepted() throws IOException
+    {
+        load(new CPU6502(), record(0x02, 0x0000, 0x00, 0x00), record(0x04, 0x0000, 0x00, 0x00), EOF);
+    }
+
+    @Test
+    void badChecksumIsRejected()
+    {
+        String good = record(0x00, 0x0600, 0xA9, 0x01);
+        String bad = good.substring(0, good.length() - 2) + "00";
+        assertThrows(IOException.class, () -> load(new CPU6502(), bad, EOF));
+    }
+
+    @Test
+    void shortRecordsAreRejected()
+    {
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x02, 0x0000, 0x00), EOF));
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x04, 0x0000), EOF));
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x03, 0x0000, 0x06), EOF));
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x05, 0x0000), EOF));
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x05, 0x0000, 0x00, 0x06, 0x00), EOF));
+    }
+
+    @Test
+    void longRecordsAreRejected()
+    {
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x04, 0x0000, 0x00, 0x00, 0x00), EOF));
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x03, 0x0000, 0x00, 0x00, 0x06, 0x00, 0x00), EOF));
+    }
+
+    @Test
+    void addressPast64KIsRejected()
+    {
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x04, 0x0000, 0x00, 0x01), EOF));
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x00, 0xFFFF, 0x01, 0x02), EOF));
+    }
+
+    @Test
+    void truncatedRecordIsRejected()
+    {
+        String good = record(0x00, 0x0600, 0xA9, 0x01);
+        assertThrows(IOException.class, () -> load(new CPU6502(), good.substring(0, good.length() - 3)));
+    }
+
+    @Test
+    void unknownRecordTypeIsRejected()
+    {
+        assertThrows(IOException.class, () -> load(new CPU6502(), record(0x07, 0x0000), EOF));
+    }
+}
@@ -0,0 +1,304 @@
+package com.lewisk.emulation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Every rule is checked by running the optimized image against the plain one.
+class Optimizer6502Test
+{
+    private static CPU6502 run(Program6502 program)
+    {
+        assertNotNull(program);
+        CPU6502 cpu = new CPU6502();
+        cpu.importRAM(program);
+        cpu.registers.PC = (short) program.origin;
+        cpu.halt = false;
+        for(int i = 0; i < 100000 && !cpu.halt; i++) cpu.execute();
+        assertTrue(cpu.halt, "program did not reach BRK");
+        return cpu;
+    }
+
+    // Runs both images, they must end with the same registers and memory.
+    // The stack page holds return addresses, which move with the code.
+    private static CPU6502 runBoth(String... source)
+    {
+        CPU6502 plain = run(Assemble6502.assembleProgram(source, false));
+        CPU6502 optimized = run(Assemble6502.assembleProgram(source, true));
+        assertEquals(plain.registers.A, optimized.registers.A, "A");
+        assertEquals(plain.registers.X, optimized.registers.X, "X");
+        assertEquals(plain.registers.Y, optimized.registers.Y, "Y");
+        assertEquals(plain.registers.SP, optimized.registers.SP, "SP");
+        for(int address = 0; address < 0x0600; address++)
+        {
+            if(address >> 8 == 0x01) continue;
+            assertEquals(plain.peekRAM((short) address), optimized.peekRAM((short) address), String.format("$%04x", address));
+        }
+        return optimized;
+    }
+
+    private static int size(boolean optimize, String... source)
+    {
+        return Assemble6502.assembleProgram(source, optimize).bytes.length;
+    }
+
+    @Test
+    void storeThenLoadIsKeptBeforeBranch()
+    {
+        String[] source = {
+                "LDA #$00",
+                "LDX #$01",
+                "STA $10",
+                "LDA $10",
+                "BEQ zero",
+                "LDA #$FF",
+                "STA $20",
+                "BRK",
+                "zero:",
+                "LDA #$AA",
+                "STA $20",
+                "BRK"
+        };
+        CPU6502 cpu = runBoth(source);
+        assertEquals((byte) 0xAA, cpu.peekRAM((short) 0x20));
+        assertEquals(size(false, source), size(true, source));
+    }
+
+    @Test
+    void storeThenLoadIsRemovedBeforeFlagSetter()
+    {
+        String[] source = {
+                "LDA #$07",
+                "STA $10",
+                "LDA $10",
+                "LDX #$01",
+                "STA $20",
+                "BRK"
+        };
+        runBoth(source);
+        assertEquals(size(false, source) - 2, size(true, source));
+    }
+
+    @Test
+    void loadThenStoreIsRemoved()
+    {
+        String[] source = {
+                "LDA $10",
+                "STA $10",
+                "LDX #$01",
+                "BRK"
+        };
+        runBoth(source);
+        assertEquals(size(false, source) - 2, size(true, source));
+    }
+
+    @Test
+    void randomByteIsNeverTreatedAsPlainMemory()
+    {
+        String[] source = {
+                "LDA $FE",
+                "STA $FE",
+                "BRK"
+        };
+        assertEquals(size(false, source), size(true, source));
+    }
+
+    @Test
+    void redundantImmediateLoadIsRemoved()
+    {
+        String[] source = {
+                "LDA #$01",
+                "LDA #$02",
+                "STA $10",
+                "BRK"
+        };
+        CPU6502 cpu = runBoth(source);
+        assertEquals((byte) 0x02, cpu.peekRAM((short) 0x10));
+        assertEquals(size(false, source) - 2, size(true, source));
+    }
+
+    @Test
+    void jumpToNextInstructionIsRemoved()
+    {
+        String[] source = {
+                "LDA #$01",
+                "JMP next",
+                "next:",
+                "STA $10",
+                "BRK"
+        };
+        runBoth(source);
+        assertEquals(size(false, source) - 3, size(true, source));
+    }
+
+    @Test
+    void jumpToRtsReturnsDirectly()
+    {
+        String[] source = {
+                "JSR sub",
+                "STA $10",
+                "BRK",
+                "sub:",
+                "LDA #$05",
+                "JMP done",
+                "done:",
+                "NOP",
+                "RTS",
+                "other:",
+                "JMP exit",
+                "exit:",
+                "RTS"
+        };
+        CPU6502 cpu = runBoth(source);
+        assertEquals((byte) 0x05, cpu.peekRAM((short) 0x10));
+    }
+
+    @Test
+    void tailCallRtsIsKeptWhenLabelled()
+    {
+        String[] source = {
+                "LDX #$00",
+                "JSR outer",
+                "STX $20",
+                "LDX #$01",
+                "JSR outer",
+                "STX $21",
+                "BRK",
+                "outer:",
+                "CPX #$00",
+                "BEQ skip",
+                "JSR inner",
+                "skip:",
+                "RTS",
+                "inner:",
+                "INX",
+                "RTS"
+        };
+        CPU6502 cpu = runBoth(source);
+        assertEquals((byte) 0x00, cpu.peekRAM((short) 0x20));
+        assertEquals((byte) 0x02, cpu.peekRAM((short) 0x21));
+
+        // JSR inner became JMP inner, the labelled RTS after it is still there.
+        Program6502 program = Assemble6502.assembleProgram(source, true);
+        int skip = program.symbols.get("skip") - program.origin;
+        assertEquals((byte) 0x4C, program.bytes[skip - 3]);
+        assertEquals((byte) 0x60, program.bytes[skip]);
+    }
+
+    @Test
+    void tailCallRtsIsRemovedWhenUnlabelled()
+    {
+        String[] source = {
+                "JSR outer",
+                "STX $20",
+                "BRK",
+                "outer:",
+                "LDX #$01",
+                "JSR inner",
+                "RTS",
+                "other:",
+                "LDX #$00",
+                "RTS",
+                "inner:",
+                "INX",
+                "RTS"
+        };
+        CPU6502 cpu = runBoth(source);
+        assertEquals((byte) 0x02, cpu.peekRAM((short) 0x20));
+        assertEquals(size(false, source) - 1, size(true, source));
+    }
+
+    @Test
+    void absoluteOperandInPageZeroIsShortened()
+    {
+        String[] source = {
+                "LDA #$09",
+                "STA $0010",
+                "LDX $0010",
+                "STX $0300",
+                "BRK"
+        };
+        CPU6502 cpu = runBoth(source);
+        assertEquals((byte) 0x09, cpu.peekRAM((short) 0x0300));
+        assertEquals(size(false, source) - 2, size(true, source));
+    }
+
+    @Test
+    void indexedOperandIsNeverShortened()
+    {
+        String[] source = {
+                "LDX #$20",
+                "LDA #$03",
+                "STA $00F0,X",
+                "BRK"
+        };
+        CPU6502 cpu = runBoth(source);
+        assertEquals((byte) 0x03, cpu.peekRAM((short) 0x0110));
+        assertEquals(size(false, source), size(true, source));
+    }
+
+    // Branch over more than 127 bytes, the plain assembler rejects it.
+    private static String[] farBranch(String load)
+    {
+        String[] source = new String[140];
+        int line = 0;
+        source[line++] = load;
+        source[line++] = "BEQ far";
+        for(String nop : Collections.nCopies(130, "NOP")) source[line++] = nop;
+        source[line++] = "LDA #$01";
+        source[line++] = "STA $20";
+        source[line++] = "BRK";
+        source[line++] = "far:";
+        source[line++] = "LDA #$AA";
+        source[line++] = "STA $20";
+        source[line++] = "BRK";
+        return java.util.Arrays.copyOf(source, line);
+    }
+
+    @Test
+    void relaxedBranchInvertsAndLandsOnTarget()
+    {
+        assertNull(Assemble6502.assembleProgram(farBranch("LDA #$00"), false));
+
+        Program6502 program = Assemble6502.assembleProgram(farBranch("LDA #$00"), true);
+        int far = program.symbols.get("far");
+        assertEquals((byte) 0xD0, program.bytes[2]); // BNE over the JMP
+        assertEquals((byte) 0x03, program.bytes[3]);
+        assertEquals((byte) 0x4C, program.bytes[4]);
+        assertEquals((byte) far, program.bytes[5]);
+        assertEquals((byte) (far >> 8), program.bytes[6]);
+
+        // Taken: lands on far.
+        assertEquals((byte) 0xAA, run(program).peekRAM((short) 0x20));
+        // Not taken: falls through the NOPs.
+        assertEquals((byte) 0x01, run(Assemble6502.assembleProgram(farBranch("LDA #$01"), true)).peekRAM((short) 0x20));
+    }
+
+    @Test
+    void entryAndLineStartSurvive()
+    {
+        String[] source = {
+                ".entry $0800",
+                "LDA #$01",
+                "LDA #$02",
+                "STA $10",
+                "BRK"
+        };
+        Program6502 program = Assemble6502.assembleProgram(source, true);
+        assertNotNull(program);
+        assertEquals(0x0800, program.origin);
+        assertEquals(source.length + 1, program.lineStart.length);
+
+        // The first load is removed, its line covers no bytes.
+        DebugInfo6502 debug = DebugInfo6502.of(program, "entry.asm");
+        assertEquals(3, debug.line(0x0800));
+        assertEquals(4, debug.line(0x0802));
+        assertEquals(5, debug.line(0x0804));
+        assertEquals(program.bytes.length, program.lineStart[source.length]);
+
+        CPU6502 cpu = run(program);
+        assertEquals((byte) 0x02, cpu.peekRAM((short) 0x10));
+    }
+}
@@ -2,6 +2,9 @@ package com.lewisk.javafx_learn;
 
 import com.lewisk.emulation.Assemble6502;
 import com.lewisk.emulation.CPU6502;
+import com.lewisk.emulation.HotReload6502;
+import com.lewisk.emulation.IdleDetector6502;
+import com.lewisk.emulation.ProgramCache6502;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.event.Event;
@@ -21,6 +24,8 @@ import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Locale;
@@ -32,11 +37,22 @@ public class Main extends Application
 {
     public static CPU6502 cpu;
     public static PixelWriter display;
+    public static HotReload6502 hotReload;
     public Thread cpuThread;
 
-    public static void main(String[] args)
+    // Run the CPU from the display timer instead of its own thread.
+    // Each frame runs the guest for the time measured since the last one,
+    // the nominal rate only covers the first frame.
+    public static boolean frameLocked;
+    public static final double REFRESH_RATE = 60.0;
+    // Longer gaps (window hidden, debugger) are not caught up on.
+    public static final long MAX_FRAME_NANOS = 250_000_000L;
+
+    public static void main(String[] args) throws IOException
     {
         cpu = new CPU6502();
+        cpu.idle = new IdleDetector6502();
+        frameLocked = Arrays.asList(args).contains("--frame-locked");
 
         /*
         cpu.importRAM(
@@ -47,8 +63,18 @@ public class Main extends Application
         */
 
      //  cpu.importRAM("test.6502");
-        String[] data = Assemble6502.assemble("test.6502");
-        cpu.importRAM(data);
+        // --watch <file> assembles from disk and patches edits into the running CPU.
+        int watch = Arrays.asList(args).indexOf("--watch");
+        if(watch >= 0 && watch + 1 < args.length)
+        {
+            hotReload = new HotReload6502(cpu, Path.of(args[watch + 1]));
+            hotReload.load();
+            hotReload.start();
+        }
+        else
+        {
+            cpu.importRAM(ProgramCache6502.getDefault().assemble("test.6502"));
+        }
 
         launch(args);
     }
@@ -82,18 +108,29 @@ public class Main extends Application
         });
 
         cpu.halt = false;
-        cpu.display = vramEdit;
+        cpu.display = vramEdit::setArgb;
 
         // Setup processor threads.
-        cpuThread = new Thread(cpu);
-        cpuThread.start();
+        if(!frameLocked)
+        {
+            cpuThread = new Thread(cpu);
+            cpuThread.start();
+        }
 
         // Update display
         new AnimationTimer()
         {
+            private long lastFrame = -1;
+
             @Override
             public void handle(long now)
             {
+                if(frameLocked)
+                {
+                    long elapsed = lastFrame < 0 ? 0 : Math.min(now - lastFrame, MAX_FRAME_NANOS);
+                    lastFrame = now;
+                    cpu.runFrame(elapsed > 0 ? 1e9 / elapsed : REFRESH_RATE);
+                }
                 graphics.drawImage(vramView.getImage(), 0, 0, 640, 640);
             }
         }.start();
@@ -103,6 +140,7 @@ public class Main extends Application
     public void stop() throws Exception
     {
         // Stop CPU processing.
-        cpuThread.interrupt();
+        if(cpuThread != null) cpuThread.interrupt();
+        cpu.halt = true;
     }
 }
@@ -1,4 +1,6 @@
 module com.lewisk.javafx_learn {
+    requires com.lewisk.emulation;
+
     requires javafx.controls;
     requires javafx.fxml;
 